@@ -0,0 +1,118 @@
+package com.garhoogin.obj2minecraft;
+
+/**
+ * The {@code AlphaMask} class tells quickly whether a rectangle of a texture
+ * has any texel opaque enough to show. A block only shows a face if the
+ * average alpha of the texels under it is at least {@link #OPAQUE_ALPHA}, and
+ * that can't happen unless at least one of those texels is, so a face over a
+ * cut-out part of its texture can be passed over without sampling it.
+ * <p>
+ * The mask is a pyramid of bits. The bottom level has a bit per texel, set if
+ * the texel is opaque enough, and each level above has a bit per 2x2 bits of
+ * the level below, set if any of them is. A rectangle is checked against the
+ * few bits of the lowest level at which it spans at most two of them each
+ * way, which cover it.
+ *
+ * @author Declan Moore
+ */
+final class AlphaMask {
+
+    /**
+     * the lowest alpha of a texel that can make a face show
+     */
+    static final int OPAQUE_ALPHA = 85;
+
+    private final int width;
+    private final int height;
+    private final int[] levelWidths;
+    private final int[] levelHeights;
+    private final long[][] levels;
+
+
+    /**
+     * Create a new instance of {@code AlphaMask} for a texture.
+     *
+     * @param pixels the texels as packed ARGB, row by row
+     * @param width  the width of the texture
+     * @param height the height of the texture
+     */
+    AlphaMask(int[] pixels, int width, int height){
+        this.width = width;
+        this.height = height;
+        int nLevels = 1;
+        while((width - 1) >> (nLevels - 1) > 0 || (height - 1) >> (nLevels - 1) > 0) nLevels++;
+        this.levelWidths = new int[nLevels];
+        this.levelHeights = new int[nLevels];
+        this.levels = new long[nLevels][];
+
+        levelWidths[0] = width;
+        levelHeights[0] = height;
+        levels[0] = new long[(width * height + 63) / 64];
+        for(int i = 0; i < width * height; i++){
+            if((pixels[i] >>> 24) >= OPAQUE_ALPHA) set(levels[0], i);
+        }
+        for(int l = 1; l < nLevels; l++){
+            int w = (levelWidths[l - 1] + 1) / 2, h = (levelHeights[l - 1] + 1) / 2;
+            levelWidths[l] = w;
+            levelHeights[l] = h;
+            levels[l] = new long[(w * h + 63) / 64];
+            for(int y = 0; y < levelHeights[l - 1]; y++){
+                for(int x = 0; x < levelWidths[l - 1]; x++){
+                    if(get(l - 1, x, y)) set(levels[l], (y / 2) * w + x / 2);
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Check whether a rectangle of texels may hold one opaque enough to
+     * show. Texel coordinates wrap around the texture, as they do when it is
+     * sampled.
+     *
+     * @param xMin the first texel in the X direction
+     * @param yMin the first texel in the Y direction
+     * @param xMax the texel after the last in the X direction
+     * @param yMax the texel after the last in the Y direction
+     * @return     false only if no texel in the rectangle is opaque enough
+     */
+    boolean mayBeOpaque(int xMin, int yMin, int xMax, int yMax){
+        if(xMax - xMin >= width){
+            xMin = 0;
+            xMax = width;
+        }
+        if(yMax - yMin >= height){
+            yMin = 0;
+            yMax = height;
+        }
+        //split a rectangle that wraps into the parts on each side
+        int x0 = Math.floorMod(xMin, width), y0 = Math.floorMod(yMin, height);
+        int x1 = x0 + (xMax - xMin), y1 = y0 + (yMax - yMin);
+        if(x1 > width){
+            return mayBeOpaque(x0, y0, width, y1) || mayBeOpaque(0, y0, x1 - width, y1);
+        }
+        if(y1 > height){
+            return mayBeOpaque(x0, y0, x1, height) || mayBeOpaque(x0, 0, x1, y1 - height);
+        }
+        if(x0 >= x1 || y0 >= y1) return false;
+
+        int l = 0;
+        while(((x1 - 1) >> l) - (x0 >> l) > 1 || ((y1 - 1) >> l) - (y0 >> l) > 1) l++;
+        for(int y = y0 >> l; y <= (y1 - 1) >> l; y++){
+            for(int x = x0 >> l; x <= (x1 - 1) >> l; x++){
+                if(get(l, x, y)) return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean get(int level, int x, int y){
+        int bit = y * levelWidths[level] + x;
+        return (levels[level][bit >> 6] & (1L << bit)) != 0;
+    }
+
+    private static void set(long[] bits, int bit){
+        bits[bit >> 6] |= 1L << bit;
+    }
+
+}
@@ -15,11 +15,18 @@ import java.awt.event.WindowEvent;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.PrintStream;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
 import javax.swing.BorderFactory;
 import javax.swing.GroupLayout;
 import javax.swing.JButton;
@@ -35,6 +42,11 @@ import javax.swing.filechooser.FileNameExtensionFilter;
 
 public class ConverterGUI {
     
+    /**
+     * the number of blocks along each side of a tile of the volume
+     */
+    static final int TILE_BLOCKS = 16;
+    
     private final JFrame frame;
     
     public ConverterGUI(){
@@ -159,8 +171,19 @@ public class ConverterGUI {
     
     void convert(ProgressWindow progressWindow, String path, int setHeight, String materialPath, String outDirectory) throws IOException{
         
-        Map<String, Texture> textures = new HashMap<>();
-        Triangle[] t = ObjReader.read(path, textures);
+        TextureLoader textures = new TextureLoader();
+        Mesh mesh = null;
+        SlabSpill spill = null;
+        Vec3 min, max;
+        if(SlabSpill.isEnabled() && !MeshReader.isBinaryFormat(path)){
+            spill = new SlabSpill(path, textures);
+            min = spill.getMinimum();
+            max = spill.getMaximum();
+        } else {
+            mesh = MeshReader.read(path, textures);
+            min = mesh.getMinimum();
+            max = mesh.getMaximum();
+        }
         
         MaterialSet materialSet;
         
@@ -171,7 +194,7 @@ public class ConverterGUI {
             materialSet = new MaterialSet();
         }
         
-        Vec3 size = Triangle.getMax(t).subtract(Triangle.getMin(t));
+        Vec3 size = max.subtract(min);
         int cubesY = setHeight;
         float width = size.x;
         float height = size.y;
@@ -180,45 +203,150 @@ public class ConverterGUI {
         int cubesZ = (int) Math.ceil(size.z / cubeSize);
         
         System.out.println("size: " + size);
-        System.out.println("Min: " + Triangle.getMin(t));
-        System.out.println("Max: " + Triangle.getMax(t));
+        System.out.println("Min: " + min);
+        System.out.println("Max: " + max);
         System.out.println("Dimensions: " + cubesX + ", " + cubesY + ", " + cubesZ);
-        System.out.println("Triangles: " + t.length);
+        if(mesh != null) System.out.println("Triangles: " + mesh.getFaceCount());
+        
+        //cluster sub-block detail away before voxelizing
+        float cellSize = MeshDecimator.getCellFraction() * cubeSize;
+        if(mesh != null && cellSize > 0.0f){
+            int before = mesh.getFaceCount();
+            mesh = MeshDecimator.decimate(mesh, min, cellSize);
+            System.out.println("Decimated: " + before + " triangles in, " + mesh.getFaceCount() + " out");
+        }
         
-        Vec3 min = Triangle.getMin(t);
         cubesX += 2; cubesZ += 2;
         World world = new World();
         
-        int nThreads = (cubesY + 15) / 16;
-        if(nThreads > MAX_THREADS) nThreads = MAX_THREADS;
+        if(spill != null){
+            try{
+                layerSlabs(spill, world, materialSet, textures, cubeSize, cellSize, min, cubesX, cubesY, cubesZ, progressWindow);
+            } finally {
+                spill.close();
+            }
+            thin(world, materialSet, cubesX, cubesZ, progressWindow);
+            save(world, progressWindow, outDirectory);
+            return;
+        }
         
-        int layersToThread = cubesY;
-        //round up to a multiple of nThreads
-        if((layersToThread % nThreads) != 0){
-            layersToThread += nThreads - (layersToThread % nThreads);
+        //with a preview, a quick pass at a fraction of the height is written
+        //first, and the blocks it finds let the full pass skip empty space
+        PreviewPass preview = null;
+        int divisor = PreviewPass.getDivisor();
+        if(divisor > 0){
+            long start = System.currentTimeMillis();
+            int coarseY = Math.max(2, setHeight / divisor);
+            float coarseSize = height / ((float) (coarseY - 1));
+            int coarseX = (int) Math.ceil(size.x / coarseSize) + 2;
+            int coarseZ = (int) Math.ceil(size.z / coarseSize) + 2;
+            preview = new PreviewPass(coarseSize, coarseX, coarseY, coarseZ);
+            World coarse = new World();
+            layerTiles(mesh, coarse, materialSet, textures, coarseSize, min, coarseX, coarseY, coarseZ, 
+                    progressWindow, preview.getOccupancy(), null);
+            new File(outDirectory).mkdirs();
+            coarse.savePreview(materialSet, outDirectory, "preview");
+            progressWindow.report("Preview at height " + coarseY + " written in " 
+                    + (System.currentTimeMillis() - start) + " ms, refining to height " + cubesY);
         }
-        //dish out threads
-        
-        List<Object> completeLayers = new ArrayList<>();
-        
-        int layersPerThread = layersToThread / nThreads;
-        List<Thread> threads = new ArrayList<>();
-        for(int i = 0; i < nThreads; i++){
-            LayererThread t1 = new LayererThread(t, world, materialSet, 
-                    textures, cubeSize, min, layersPerThread * i, cubesX, 
-                    cubesY, cubesZ, layersPerThread, progressWindow);
-            Thread th1 = t1.begin();
-            threads.add(th1);
+        
+        long start = System.currentTimeMillis();
+        layerTiles(mesh, world, materialSet, textures, cubeSize, min, cubesX, cubesY, cubesZ, progressWindow, null, preview);
+        if(preview != null){
+            progressWindow.report("Height " + cubesY + " done in " + (System.currentTimeMillis() - start) + " ms");
         }
         
-        for(Thread th : threads){
-            try{
-                th.join();
-            } catch(InterruptedException ex){
-                ex.printStackTrace();
+        thin(world, materialSet, cubesX, cubesZ, progressWindow);
+        
+        //make the model solid if asked to
+        String fillBlock = InteriorFill.getFillBlock();
+        if(fillBlock != null){
+            start = System.currentTimeMillis();
+            int filled = new InteriorFill(mesh, cubeSize, min, cubesX, cubesY, cubesZ, fillBlock).fill(world);
+            progressWindow.report("Filled " + filled + " interior blocks in " + (System.currentTimeMillis() - start) + " ms");
+        }
+        
+        save(world, progressWindow, outDirectory);
+    }
+    
+    /**
+     * Cut the volume into cubic tiles of {@link #TILE_BLOCKS} blocks and
+     * layer them on a work-stealing pool with a thread per processor. Faces
+     * are sorted into the tiles they can reach, and tiles are queued with the
+     * most faces first, so the slowest tiles start early and idle threads
+     * steal what is left. Tiles no face reaches are skipped, as are tiles a
+     * preview found no face in. Tiles are a multiple of a brick, so the
+     * tiles can record the blocks they touch in one set.
+     */
+    static void layerTiles(Mesh mesh, World world, MaterialSet materialSet, TextureLoader textures, 
+            float cubeSize, Vec3 min, int cubesX, int cubesY, int cubesZ, ProgressWindow progressWindow, 
+            VoxelGrid occupancy, PreviewPass preview){
+        //layers run from -1 to cubesY
+        int[] box = {0, -1, 0, cubesX - 1, cubesY, cubesZ - 1};
+        int[] allFaces = new int[mesh.getFaceCount()];
+        for(int i = 0; i < allFaces.length; i++) allFaces[i] = i;
+        TriangleGrid tiles = new TriangleGrid(allFaces, LayererThread.getBlockRanges(mesh, allFaces, cubeSize, min, box), 
+                0, -1, 0, cubesX, cubesY + 2, cubesZ, TILE_BLOCKS);
+        
+        List<Integer> order = new ArrayList<>();
+        int totalLayers = 0;
+        int skipped = 0;
+        for(int cell = 0; cell < tiles.cellStart.length - 1; cell++){
+            if(tiles.cellStart[cell + 1] == tiles.cellStart[cell]) continue;
+            int minX = cell / (tiles.cellsY * tiles.cellsZ) * TILE_BLOCKS;
+            int minY = -1 + (cell / tiles.cellsZ % tiles.cellsY) * TILE_BLOCKS;
+            int minZ = cell % tiles.cellsZ * TILE_BLOCKS;
+            if(preview != null && !preview.mayReach(new int[]{minX, minY, minZ, Math.min(minX + TILE_BLOCKS, cubesX) - 1, 
+                    Math.min(minY + TILE_BLOCKS - 1, cubesY), Math.min(minZ + TILE_BLOCKS, cubesZ) - 1}, cubeSize)){
+                skipped++;
+                continue;
             }
+            order.add(cell);
+            totalLayers += Math.min(TILE_BLOCKS, cubesY - minY + 1);
         }
+        order.sort((a, b) -> Integer.compare(tiles.cellStart[b + 1] - tiles.cellStart[b], tiles.cellStart[a + 1] - tiles.cellStart[a]));
+        progressWindow.layersProgressBar.setValue(0);
+        progressWindow.layersProgressBar.setMaximum(totalLayers);
         
+        List<ForkJoinTask<?>> tasks = new ArrayList<>();
+        for(int cell : order){
+            int tx = cell / (tiles.cellsY * tiles.cellsZ), ty = cell / tiles.cellsZ % tiles.cellsY, tz = cell % tiles.cellsZ;
+            int minX = tx * TILE_BLOCKS, minY = -1 + ty * TILE_BLOCKS, minZ = tz * TILE_BLOCKS;
+            tasks.add(ForkJoinTask.adapt(() -> {
+                LayererThread layerer = new LayererThread(mesh, 
+                        Arrays.copyOfRange(tiles.cellFaces, tiles.cellStart[cell], tiles.cellStart[cell + 1]), world, materialSet, textures, cubeSize, min, 
+                        minX, minY, minZ, Math.min(TILE_BLOCKS, cubesX - minX), Math.min(TILE_BLOCKS, cubesY - minY + 1), 
+                        Math.min(TILE_BLOCKS, cubesZ - minZ), cubesY, progressWindow);
+                layerer.recordOccupancy(occupancy);
+                layerer.run();
+            }));
+        }
+        
+        int nThreads = Runtime.getRuntime().availableProcessors();
+        System.out.println("Layering " + tasks.size() + " tiles on " + nThreads + " threads"
+                + (preview != null ? ", " + skipped + " found empty by the preview" : ""));
+        ForkJoinPool pool = new ForkJoinPool(nThreads);
+        try{
+            pool.invoke(ForkJoinTask.adapt(() -> ForkJoinTask.invokeAll(tasks)));
+        } finally {
+            pool.shutdown();
+        }
+    }
+    
+    /**
+     * Remove the blocks no one can see, if the {@code obj2mc.thin} property
+     * asks for it.
+     */
+    private static void thin(World world, MaterialSet materialSet, int cubesX, int cubesZ, ProgressWindow progressWindow){
+        int neighbors = ShellThinner.getNeighbors();
+        if(neighbors == 0) return;
+        long start = System.currentTimeMillis();
+        //layers are stored a block up, so they all fit in the columns
+        int removed = new ShellThinner(cubesX, cubesZ, neighbors).thin(world, materialSet);
+        progressWindow.report("Thinning removed " + removed + " hidden blocks in " + (System.currentTimeMillis() - start) + " ms");
+    }
+    
+    private static void save(World world, ProgressWindow progressWindow, String outDirectory) throws IOException{
         if(outDirectory.endsWith("/") || outDirectory.endsWith("\\")){
             outDirectory = outDirectory.substring(0, outDirectory.length() - 1);
         }
@@ -230,6 +358,70 @@ public class ConverterGUI {
         world.save(progressWindow, outDirectory);
     }
     
+    /**
+     * Spill a model to disk by slabs, then layer the slabs on a pool of
+     * threads. Each thread loads only the slab it is working on, and
+     * decimates it first if {@code cellSize} is positive. The vertices are
+     * clustered for decimation over the whole model first, so a cell's
+     * vertices move to the same place in every slab.
+     */
+    private static void layerSlabs(SlabSpill spill, World world, MaterialSet materialSet, TextureLoader textures, 
+            float cubeSize, float cellSize, Vec3 min, int cubesX, int cubesY, int cubesZ, ProgressWindow progressWindow) throws IOException{
+        MeshDecimator.Clusters clusters = cellSize > 0.0f ? spill.clusterVertices(min, cellSize) : null;
+        spill.spill(cubeSize, min, cubesY);
+        progressWindow.layersProgressBar.setMaximum(cubesY);
+        int nThreads = Math.min(MAX_THREADS, Runtime.getRuntime().availableProcessors());
+        ExecutorService executor = Executors.newFixedThreadPool(nThreads);
+        AtomicLong trianglesOut = new AtomicLong();
+        try{
+            List<Future<?>> slabs = new ArrayList<>();
+            for(int i = 0; i < spill.getSlabCount(); i++){
+                final int slab = i;
+                slabs.add(executor.submit(() -> {
+                    Mesh slabMesh = spill.loadSlab(slab);
+                    if(clusters != null){
+                        slabMesh = MeshDecimator.decimate(slabMesh, clusters);
+                        trianglesOut.addAndGet(countOwnFaces(slabMesh, slab, spill.getSlabCount(), cubeSize, min));
+                    }
+                    new LayererThread(slabMesh, world, materialSet, textures, 
+                            cubeSize, min, slab * SlabSpill.SLAB_LAYERS, cubesX, 
+                            cubesY, cubesZ, SlabSpill.SLAB_LAYERS, progressWindow).run();
+                    return null;
+                }));
+            }
+            for(Future<?> slab : slabs){
+                slab.get();
+            }
+            if(cellSize > 0.0f){
+                System.out.println("Decimated: " + spill.getFaceCount() + " triangles in, " + trianglesOut + " out");
+            }
+        } catch(InterruptedException ex){
+            throw new InterruptedIOException("Interrupted while layering");
+        } catch(ExecutionException ex){
+            Throwable cause = ex.getCause();
+            if(cause instanceof IOException) throw (IOException) cause;
+            if(cause instanceof RuntimeException) throw (RuntimeException) cause;
+            throw new IOException(cause);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+    /**
+     * Count the faces of a decimated slab that no other slab counts. A face
+     * spanning several slabs is decimated the same way in each, so each one
+     * is counted only by the slab holding its lowest corner.
+     */
+    private static int countOwnFaces(Mesh slabMesh, int slab, int nSlabs, float cubeSize, Vec3 min){
+        float slabHeight = SlabSpill.SLAB_LAYERS * cubeSize;
+        int count = 0;
+        for(int face = 0; face < slabMesh.getFaceCount(); face++){
+            float lowest = slabMesh.bounds[face * 6 + 1];
+            int owner = (int) Math.floor((lowest - min.y) / slabHeight);
+            if(Math.max(Math.min(owner, nSlabs - 1), 0) == slab) count++;
+        }
+        return count;
+    }
+    
     
     
     
@@ -276,6 +468,17 @@ public class ConverterGUI {
         public void destroy(){
             this.frame.dispatchEvent(new WindowEvent(this.frame, WindowEvent.WINDOW_CLOSING));
         }
+        
+        /**
+         * Report a finished stage of the conversion, in the window's title
+         * and on the console.
+         * 
+         * @param message the message to show
+         */
+        public void report(String message){
+            System.out.println(message);
+            this.frame.setTitle("Progress - " + message);
+        }
 
     }
     
@@ -314,7 +517,7 @@ class ConverterGUIActionListener implements ActionListener{
         Component c = (Component) e.getSource();
         if(c.equals(modelBrowse)){
             JFileChooser chooser = new JFileChooser();
-            FileNameExtensionFilter filter = new FileNameExtensionFilter("Wavefront OBJ Files", "obj");
+            FileNameExtensionFilter filter = new FileNameExtensionFilter("Model Files", "obj", "gz", "zip", "stl", "ply", "glb");
             chooser.setFileFilter(filter);
             int val = chooser.showOpenDialog(frame);
             if(val == JFileChooser.APPROVE_OPTION){
@@ -0,0 +1,137 @@
+package com.garhoogin.obj2minecraft;
+
+import java.util.Arrays;
+
+/**
+ * The {@code FloatList} class is a growable list of primitive floats. It is
+ * used in place of {@code List<Float>} where boxing every element would cost
+ * too much memory.
+ *
+ * @author Declan Moore
+ */
+final class FloatList {
+
+    private float[] data;
+    private int size;
+
+
+    /**
+     * Create a new, empty instance of {@code FloatList}.
+     */
+    FloatList(){
+        this(64);
+    }
+
+
+    /**
+     * Create a new, empty instance of {@code FloatList} with a given initial
+     * capacity.
+     *
+     * @param capacity the initial capacity
+     */
+    FloatList(int capacity){
+        this.data = new float[Math.max(capacity, 4)];
+        this.size = 0;
+    }
+
+
+    /**
+     * Add a value to the end of this list.
+     *
+     * @param f the value to add
+     */
+    void add(float f){
+        if(size == data.length) grow(size + 1);
+        data[size++] = f;
+    }
+
+
+    /**
+     * Add two values to the end of this list.
+     *
+     * @param f1 the first value
+     * @param f2 the second value
+     */
+    void add(float f1, float f2){
+        if(size + 2 > data.length) grow(size + 2);
+        data[size] = f1;
+        data[size + 1] = f2;
+        size += 2;
+    }
+
+
+    /**
+     * Add three values to the end of this list.
+     *
+     * @param f1 the first value
+     * @param f2 the second value
+     * @param f3 the third value
+     */
+    void add(float f1, float f2, float f3){
+        if(size + 3 > data.length) grow(size + 3);
+        data[size] = f1;
+        data[size + 1] = f2;
+        data[size + 2] = f3;
+        size += 3;
+    }
+
+
+    /**
+     * Add the contents of another list to the end of this list.
+     *
+     * @param list the list to append
+     */
+    void addAll(FloatList list){
+        if(size + list.size > data.length) grow(size + list.size);
+        System.arraycopy(list.data, 0, data, size, list.size);
+        size += list.size;
+    }
+
+
+    /**
+     * Get a value from this list.
+     *
+     * @param i the index of the value
+     * @return  the value at index {@code i}
+     */
+    float get(int i){
+        return data[i];
+    }
+
+
+    /**
+     * Replace a value in this list.
+     *
+     * @param i     the index of the value
+     * @param value the new value
+     */
+    void set(int i, float value){
+        data[i] = value;
+    }
+
+
+    /**
+     * Get the number of values in this list.
+     *
+     * @return the number of values in this list
+     */
+    int size(){
+        return size;
+    }
+
+
+    /**
+     * Get a copy of the contents of this list, trimmed to its size.
+     *
+     * @return an array holding the contents of this list
+     */
+    float[] toArray(){
+        return Arrays.copyOf(data, size);
+    }
+
+    private void grow(int minCapacity){
+        int newCapacity = Math.max(data.length + (data.length >>> 1), minCapacity);
+        data = Arrays.copyOf(data, newCapacity);
+    }
+
+}
@@ -0,0 +1,398 @@
+package com.garhoogin.obj2minecraft;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * This class contains methods for reading a GLB (binary glTF 2.0) file. The
+ * JSON chunk is parsed to find the meshes of the default scene, and their
+ * vertex and index data is read straight out of a memory mapping of the
+ * binary chunk. Each node's transform is applied to its mesh. The base color
+ * texture of each material is handed to the texture loader as image data
+ * embedded in the file.
+ *
+ * @author Declan Moore
+ */
+final class GlbReader {
+
+    private static final int MAGIC = 0x46546C67; //'glTF'
+    private static final int CHUNK_JSON = 0x4E4F534A;
+    private static final int CHUNK_BIN = 0x004E4942;
+
+    //accessor component types
+    private static final int BYTE = 5120, UNSIGNED_BYTE = 5121, SHORT = 5122;
+    private static final int UNSIGNED_SHORT = 5123, UNSIGNED_INT = 5125, FLOAT = 5126;
+
+    private static final int MODE_TRIANGLES = 4;
+
+    private final File file;
+    private final Object gltf;
+    private final ByteBuffer bin;
+    private final FloatList positions = new FloatList();
+    private final FloatList texCoords = new FloatList();
+    private final IntList indices = new IntList();
+    private final IntList texIndices = new IntList();
+    private final IntList materials = new IntList();
+    private int skippedPrimitives;
+
+    private GlbReader(File file, Object gltf, ByteBuffer bin){
+        this.file = file;
+        this.gltf = gltf;
+        this.bin = bin;
+    }
+
+
+    /**
+     * Read a GLB file and define in {@code textures} the base color texture
+     * of each of its materials.
+     *
+     * @param f            the GLB file
+     * @param textures     the texture loader to define textures in
+     * @return             the mesh read from the file
+     * @throws IOException if the file could not be read, or is not a GLB
+     *                     file
+     */
+    static Mesh read(File f, TextureLoader textures) throws IOException{
+        ByteBuffer buffer;
+        try(FileChannel channel = FileChannel.open(f.toPath(), StandardOpenOption.READ)){
+            long size = channel.size();
+            if(size > Integer.MAX_VALUE) throw new IOException("GLB file too large: " + f);
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size).order(ByteOrder.LITTLE_ENDIAN);
+        }
+        if(buffer.limit() < 20 || buffer.getInt(0) != MAGIC) throw new IOException("Not a GLB file: " + f);
+        if(buffer.getInt(4) != 2) throw new IOException("Only glTF 2.0 is supported: " + f);
+
+        Object gltf = null;
+        ByteBuffer bin = null;
+        int pos = 12;
+        int end = Math.min(buffer.getInt(8), buffer.limit());
+        while(pos + 8 <= end){
+            int length = buffer.getInt(pos);
+            int type = buffer.getInt(pos + 4);
+            if(length < 0 || pos + 8L + length > end) throw new IOException("GLB file is truncated: " + f);
+            if(type == CHUNK_JSON && gltf == null){
+                byte[] json = new byte[length];
+                slice(buffer, pos + 8, length).get(json);
+                gltf = Json.parse(new String(json, StandardCharsets.UTF_8));
+            } else if(type == CHUNK_BIN && bin == null){
+                bin = slice(buffer, pos + 8, length).order(ByteOrder.LITTLE_ENDIAN);
+            }
+            //chunks are padded to 4 bytes
+            pos += 8 + ((length + 3) & ~3);
+        }
+        if(gltf == null) throw new IOException("GLB file has no JSON chunk: " + f);
+
+        GlbReader reader = new GlbReader(f, gltf, bin);
+        reader.readScene();
+        if(reader.skippedPrimitives > 0){
+            System.err.println("Skipped " + reader.skippedPrimitives + " non-triangle primitives in " + f);
+        }
+        String[] materialNames = reader.defineMaterials(textures);
+        short[] faceMaterials = new short[reader.materials.size()];
+        for(int i = 0; i < faceMaterials.length; i++){
+            faceMaterials[i] = (short) reader.materials.get(i);
+        }
+        return new Mesh(reader.positions.toArray(), reader.texCoords.toArray(), reader.indices.toArray(),
+                reader.texIndices.toArray(), faceMaterials, materialNames);
+    }
+
+    private void readScene() throws IOException{
+        Object scenes = Json.get(gltf, "scenes");
+        Object scene = Json.get(scenes, Json.getInt(Json.get(gltf, "scene"), 0));
+        if(scene == null){
+            //no scene, so take every mesh as it is
+            for(int i = 0; i < Json.size(Json.get(gltf, "meshes")); i++){
+                readMesh(i, identity());
+            }
+            return;
+        }
+        Object roots = Json.get(scene, "nodes");
+        for(int i = 0; i < Json.size(roots); i++){
+            readNode(Json.getInt(Json.get(roots, i), -1), identity(), 0);
+        }
+    }
+
+    private void readNode(int index, float[] parent, int depth) throws IOException{
+        Object node = Json.get(Json.get(gltf, "nodes"), index);
+        if(node == null || depth > 64) throw new IOException("Bad node hierarchy in " + file);
+        float[] transform = multiply(parent, getLocalTransform(node));
+        Object mesh = Json.get(node, "mesh");
+        if(mesh != null) readMesh(Json.getInt(mesh, -1), transform);
+        Object children = Json.get(node, "children");
+        for(int i = 0; i < Json.size(children); i++){
+            readNode(Json.getInt(Json.get(children, i), -1), transform, depth + 1);
+        }
+    }
+
+    private void readMesh(int index, float[] transform) throws IOException{
+        Object mesh = Json.get(Json.get(gltf, "meshes"), index);
+        if(mesh == null) throw new IOException("Bad mesh index in " + file);
+        Object primitives = Json.get(mesh, "primitives");
+        for(int i = 0; i < Json.size(primitives); i++){
+            Object primitive = Json.get(primitives, i);
+            if(Json.getInt(Json.get(primitive, "mode"), MODE_TRIANGLES) != MODE_TRIANGLES){
+                skippedPrimitives++;
+                continue;
+            }
+            readPrimitive(primitive, transform);
+        }
+    }
+
+    private void readPrimitive(Object primitive, float[] m) throws IOException{
+        Object attributes = Json.get(primitive, "attributes");
+        Object position = Json.get(attributes, "POSITION");
+        if(position == null) return;
+        int positionBase = positions.size() / 3;
+        int nVertices = readAccessor(Json.getInt(position, -1), 3, null);
+        float[] local = new float[nVertices * 3];
+        readAccessor(Json.getInt(position, -1), 3, local);
+        for(int i = 0; i < nVertices; i++){
+            float x = local[i * 3], y = local[i * 3 + 1], z = local[i * 3 + 2];
+            positions.add(m[0] * x + m[4] * y + m[8] * z + m[12],
+                    m[1] * x + m[5] * y + m[9] * z + m[13],
+                    m[2] * x + m[6] * y + m[10] * z + m[14]);
+        }
+
+        int texBase = -1;
+        Object texCoord = Json.get(attributes, "TEXCOORD_0");
+        if(texCoord != null){
+            float[] uv = new float[readAccessor(Json.getInt(texCoord, -1), 2, null) * 2];
+            readAccessor(Json.getInt(texCoord, -1), 2, uv);
+            if(uv.length / 2 == nVertices){
+                texBase = texCoords.size() / 2;
+                for(int i = 0; i < uv.length; i += 2){
+                    texCoords.add(uv[i], uv[i + 1]);
+                }
+            }
+        }
+
+        int[] faceIndices;
+        Object indexAccessor = Json.get(primitive, "indices");
+        if(indexAccessor != null){
+            faceIndices = readIndices(Json.getInt(indexAccessor, -1));
+        } else {
+            faceIndices = new int[nVertices - nVertices % 3];
+            for(int i = 0; i < faceIndices.length; i++) faceIndices[i] = i;
+        }
+
+        //as in OBJ files, faces without texture coordinates have no material
+        int material = texBase < 0 ? -1 : Json.getInt(Json.get(primitive, "material"), -1);
+        for(int i = 0; i + 2 < faceIndices.length; i += 3){
+            for(int j = 0; j < 3; j++){
+                int v = faceIndices[i + j];
+                if(v < 0 || v >= nVertices) throw new IOException("Invalid vertex index in " + file);
+                indices.add(positionBase + v);
+                texIndices.add(texBase < 0 ? -1 : texBase + v);
+            }
+            materials.add(material);
+        }
+    }
+
+    /**
+     * Read the elements of an accessor as floats, or only count them if
+     * {@code out} is null. Normalized integer components are converted to
+     * the range [0, 1] or [-1, 1].
+     */
+    private int readAccessor(int index, int components, float[] out) throws IOException{
+        Object accessor = Json.get(Json.get(gltf, "accessors"), index);
+        if(accessor == null) throw new IOException("Bad accessor index in " + file);
+        int count = Json.getInt(Json.get(accessor, "count"), 0);
+        if(out == null) return count;
+
+        int componentType = Json.getInt(Json.get(accessor, "componentType"), FLOAT);
+        boolean normalized = Boolean.TRUE.equals(Json.get(accessor, "normalized"));
+        int componentSize = getComponentSize(componentType);
+        Object view = Json.get(Json.get(gltf, "bufferViews"), Json.getInt(Json.get(accessor, "bufferView"), -1));
+        if(view == null){
+            //sparse-only or uninitialized accessors read as zeros
+            return count;
+        }
+        int stride = Json.getInt(Json.get(view, "byteStride"), componentSize * components);
+        int base = getViewOffset(view) + Json.getInt(Json.get(accessor, "byteOffset"), 0);
+        checkRange(base, count == 0 ? 0 : (long) (count - 1) * stride + componentSize * components);
+
+        if(componentType == FLOAT && !normalized){
+            for(int i = 0; i < count; i++){
+                int offset = base + i * stride;
+                for(int j = 0; j < components; j++){
+                    out[i * components + j] = bin.getFloat(offset + j * 4);
+                }
+            }
+            return count;
+        }
+        for(int i = 0; i < count; i++){
+            int offset = base + i * stride;
+            for(int j = 0; j < components; j++){
+                out[i * components + j] = getComponent(offset + j * componentSize, componentType, normalized);
+            }
+        }
+        return count;
+    }
+
+    private int[] readIndices(int index) throws IOException{
+        Object accessor = Json.get(Json.get(gltf, "accessors"), index);
+        if(accessor == null) throw new IOException("Bad accessor index in " + file);
+        int count = Json.getInt(Json.get(accessor, "count"), 0);
+        int componentType = Json.getInt(Json.get(accessor, "componentType"), UNSIGNED_INT);
+        int componentSize = getComponentSize(componentType);
+        Object view = Json.get(Json.get(gltf, "bufferViews"), Json.getInt(Json.get(accessor, "bufferView"), -1));
+        if(view == null) throw new IOException("Index accessor has no buffer view in " + file);
+        int stride = Json.getInt(Json.get(view, "byteStride"), componentSize);
+        int base = getViewOffset(view) + Json.getInt(Json.get(accessor, "byteOffset"), 0);
+        checkRange(base, count == 0 ? 0 : (long) (count - 1) * stride + componentSize);
+
+        int[] out = new int[count];
+        for(int i = 0; i < count; i++){
+            int offset = base + i * stride;
+            switch(componentType){
+                case UNSIGNED_BYTE: out[i] = bin.get(offset) & 0xFF; break;
+                case UNSIGNED_SHORT: out[i] = bin.getShort(offset) & 0xFFFF; break;
+                case UNSIGNED_INT: out[i] = bin.getInt(offset); break;
+                default: throw new IOException("Bad index component type in " + file);
+            }
+        }
+        return out;
+    }
+
+    private int getViewOffset(Object view) throws IOException{
+        if(Json.getInt(Json.get(view, "buffer"), 0) != 0 || bin == null){
+            throw new IOException("Only data in the GLB binary chunk is supported: " + file);
+        }
+        return Json.getInt(Json.get(view, "byteOffset"), 0);
+    }
+
+    private void checkRange(int offset, long length) throws IOException{
+        if(offset < 0 || offset + length > bin.limit()) throw new IOException("Accessor out of range in " + file);
+    }
+
+    private static int getComponentSize(int componentType) throws IOException{
+        switch(componentType){
+            case BYTE: case UNSIGNED_BYTE: return 1;
+            case SHORT: case UNSIGNED_SHORT: return 2;
+            case UNSIGNED_INT: case FLOAT: return 4;
+            default: throw new IOException("Unknown accessor component type " + componentType);
+        }
+    }
+
+    private float getComponent(int offset, int componentType, boolean normalized){
+        switch(componentType){
+            case BYTE: return normalized ? Math.max(bin.get(offset) / 127.0f, -1.0f) : bin.get(offset);
+            case UNSIGNED_BYTE: return normalized ? (bin.get(offset) & 0xFF) / 255.0f : bin.get(offset) & 0xFF;
+            case SHORT: return normalized ? Math.max(bin.getShort(offset) / 32767.0f, -1.0f) : bin.getShort(offset);
+            case UNSIGNED_SHORT: return normalized ? (bin.getShort(offset) & 0xFFFF) / 65535.0f : bin.getShort(offset) & 0xFFFF;
+            case UNSIGNED_INT: return bin.getInt(offset) & 0xFFFFFFFFL;
+            default: return bin.getFloat(offset);
+        }
+    }
+
+    /**
+     * Name every material and define the texture of those with an embedded
+     * base color image.
+     */
+    private String[] defineMaterials(TextureLoader textures) throws IOException{
+        Object materialList = Json.get(gltf, "materials");
+        String[] names = new String[Json.size(materialList)];
+        for(int i = 0; i < names.length; i++){
+            Object material = Json.get(materialList, i);
+            Object name = Json.get(material, "name");
+            names[i] = name instanceof String ? (String) name : "material" + i;
+
+            Object texture = Json.get(Json.get(Json.get(material, "pbrMetallicRoughness"), "baseColorTexture"), "index");
+            Object source = Json.get(Json.get(Json.get(gltf, "textures"), Json.getInt(texture, -1)), "source");
+            int imageIndex = Json.getInt(source, -1);
+            Object image = Json.get(Json.get(gltf, "images"), imageIndex);
+            if(image == null) continue;
+            Object uri = Json.get(image, "uri");
+            Object view = Json.get(Json.get(gltf, "bufferViews"), Json.getInt(Json.get(image, "bufferView"), -1));
+            if(view != null){
+                int offset = getViewOffset(view);
+                int length = Json.getInt(Json.get(view, "byteLength"), 0);
+                checkRange(offset, length);
+                textures.define(names[i], file, "image" + imageIndex, slice(bin, offset, length));
+            } else if(uri instanceof String && !((String) uri).startsWith("data:")){
+                textures.define(names[i], new File(file.getAbsoluteFile().getParent() + "/" + uri));
+            }
+        }
+
+        //faces whose material index is out of range have none
+        for(int i = 0; i < materials.size(); i++){
+            if(materials.get(i) >= names.length) materials.set(i, -1);
+        }
+        return names;
+    }
+
+    private static float[] identity(){
+        return new float[]{1, 0, 0, 0, 0, 1, 0, 0, 0, 0, 1, 0, 0, 0, 0, 1};
+    }
+
+    /**
+     * Get the transform of a node, as a column-major 4x4 matrix.
+     */
+    private static float[] getLocalTransform(Object node){
+        Object matrix = Json.get(node, "matrix");
+        float[] m = identity();
+        if(Json.size(matrix) == 16){
+            for(int i = 0; i < 16; i++){
+                m[i] = getFloat(Json.get(matrix, i), m[i]);
+            }
+            return m;
+        }
+
+        Object t = Json.get(node, "translation");
+        Object r = Json.get(node, "rotation");
+        Object s = Json.get(node, "scale");
+        float qx = getFloat(Json.get(r, 0), 0), qy = getFloat(Json.get(r, 1), 0);
+        float qz = getFloat(Json.get(r, 2), 0), qw = getFloat(Json.get(r, 3), 1);
+        float sx = getFloat(Json.get(s, 0), 1), sy = getFloat(Json.get(s, 1), 1), sz = getFloat(Json.get(s, 2), 1);
+
+        //T * R * S
+        m[0] = (1 - 2 * (qy * qy + qz * qz)) * sx;
+        m[1] = (2 * (qx * qy + qz * qw)) * sx;
+        m[2] = (2 * (qx * qz - qy * qw)) * sx;
+        m[4] = (2 * (qx * qy - qz * qw)) * sy;
+        m[5] = (1 - 2 * (qx * qx + qz * qz)) * sy;
+        m[6] = (2 * (qy * qz + qx * qw)) * sy;
+        m[8] = (2 * (qx * qz + qy * qw)) * sz;
+        m[9] = (2 * (qy * qz - qx * qw)) * sz;
+        m[10] = (1 - 2 * (qx * qx + qy * qy)) * sz;
+        m[12] = getFloat(Json.get(t, 0), 0);
+        m[13] = getFloat(Json.get(t, 1), 0);
+        m[14] = getFloat(Json.get(t, 2), 0);
+        return m;
+    }
+
+    private static float[] multiply(float[] a, float[] b){
+        float[] m = new float[16];
+        for(int col = 0; col < 4; col++){
+            for(int row = 0; row < 4; row++){
+                float sum = 0;
+                for(int k = 0; k < 4; k++){
+                    sum += a[k * 4 + row] * b[col * 4 + k];
+                }
+                m[col * 4 + row] = sum;
+            }
+        }
+        return m;
+    }
+
+    private static float getFloat(Object value, float defaultValue){
+        return value instanceof Number ? ((Number) value).floatValue() : defaultValue;
+    }
+
+    /**
+     * Get a buffer over part of another, leaving the other's position and
+     * limit as they are.
+     */
+    private static ByteBuffer slice(ByteBuffer buffer, int offset, int length){
+        ByteBuffer view = buffer.duplicate();
+        view.limit(offset + length);
+        view.position(offset);
+        return view.slice();
+    }
+
+}
@@ -0,0 +1,137 @@
+package com.garhoogin.obj2minecraft;
+
+import java.util.Arrays;
+
+/**
+ * The {@code IntList} class is a growable list of primitive integers. It is
+ * used in place of {@code List<Integer>} where boxing every element would cost
+ * too much memory.
+ *
+ * @author Declan Moore
+ */
+final class IntList {
+
+    private int[] data;
+    private int size;
+
+
+    /**
+     * Create a new, empty instance of {@code IntList}.
+     */
+    IntList(){
+        this(64);
+    }
+
+
+    /**
+     * Create a new, empty instance of {@code IntList} with a given initial
+     * capacity.
+     *
+     * @param capacity the initial capacity
+     */
+    IntList(int capacity){
+        this.data = new int[Math.max(capacity, 4)];
+        this.size = 0;
+    }
+
+
+    /**
+     * Add a value to the end of this list.
+     *
+     * @param i the value to add
+     */
+    void add(int i){
+        if(size == data.length) grow(size + 1);
+        data[size++] = i;
+    }
+
+
+    /**
+     * Add two values to the end of this list.
+     *
+     * @param i1 the first value
+     * @param i2 the second value
+     */
+    void add(int i1, int i2){
+        if(size + 2 > data.length) grow(size + 2);
+        data[size] = i1;
+        data[size + 1] = i2;
+        size += 2;
+    }
+
+
+    /**
+     * Add the contents of another list to the end of this list.
+     *
+     * @param list the list to append
+     */
+    void addAll(IntList list){
+        if(size + list.size > data.length) grow(size + list.size);
+        System.arraycopy(list.data, 0, data, size, list.size);
+        size += list.size;
+    }
+
+
+    /**
+     * Get a value from this list.
+     *
+     * @param i the index of the value
+     * @return  the value at index {@code i}
+     */
+    int get(int i){
+        return data[i];
+    }
+
+
+    /**
+     * Replace a value in this list.
+     *
+     * @param i     the index of the value
+     * @param value the new value
+     */
+    void set(int i, int value){
+        data[i] = value;
+    }
+
+
+    /**
+     * Get the number of values in this list.
+     *
+     * @return the number of values in this list
+     */
+    int size(){
+        return size;
+    }
+
+
+    /**
+     * Remove every value from this list, keeping its capacity.
+     */
+    void clear(){
+        size = 0;
+    }
+
+
+    /**
+     * Sort the values in this list in ascending order.
+     */
+    void sort(){
+        Arrays.sort(data, 0, size);
+    }
+
+
+    /**
+     * Get a copy of the contents of this list, trimmed to its size.
+     *
+     * @return an array holding the contents of this list
+     */
+    int[] toArray(){
+        return Arrays.copyOf(data, size);
+    }
+
+    private void grow(int minCapacity){
+        int newCapacity = Math.max(data.length + (data.length >>> 1), minCapacity);
+        data = Arrays.copyOf(data, newCapacity);
+    }
+
+}
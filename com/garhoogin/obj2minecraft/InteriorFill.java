@@ -0,0 +1,252 @@
+package com.garhoogin.obj2minecraft;
+
+import com.garhoogin.obj2minecraft.world.Block;
+import com.garhoogin.obj2minecraft.world.World;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * The {@code InteriorFill} class fills the inside of a voxelized model, so
+ * that it comes out solid rather than as a shell. A ray is cast up each
+ * column of blocks, every face it crosses is found once, and the blocks
+ * between each entry into the model and the following exit are filled, apart
+ * from those the shell already has. The work grows with the number of
+ * columns and the faces over them, not with the volume filled. Columns are
+ * filled on a pool of threads, a strip of them at a time.
+ * <p>
+ * This is turned on by setting the {@code obj2mc.fill} system property to
+ * the name of the block to fill with, for example {@code stone}. The model
+ * should be closed; a column that crosses its surface an odd number of times
+ * leaves its last span empty.
+ *
+ * @author Declan Moore
+ */
+final class InteriorFill {
+
+    /**
+     * the system property giving the block to fill the interior with
+     */
+    static final String FILL_PROPERTY = "obj2mc.fill";
+
+    //the overlap test's box is offset from a block's corner by half a block,
+    //so its middle is this many blocks from the corner
+    private static final float BOX_MIDDLE = 0.5f + 0.5f * Main.TEST_BOX_SCALE;
+
+    private final Mesh mesh;
+    private final float cubeSize;
+    private final Vec3 min;
+    private final int cubesX;
+    private final int cubesY;
+    private final int cubesZ;
+    private final String block;
+
+
+    /**
+     * Create a new instance of {@code InteriorFill}.
+     *
+     * @param mesh     the mesh that was voxelized
+     * @param cubeSize the size of a block in model space
+     * @param min      the smallest coordinate in the model
+     * @param cubesX   the number of blocks in the X direction
+     * @param cubesY   the number of blocks in the Y direction
+     * @param cubesZ   the number of blocks in the Z direction
+     * @param block    the name of the block to fill with
+     */
+    InteriorFill(Mesh mesh, float cubeSize, Vec3 min, int cubesX, int cubesY, int cubesZ, String block){
+        this.mesh = mesh;
+        this.cubeSize = cubeSize;
+        this.min = min;
+        this.cubesX = cubesX;
+        this.cubesY = cubesY;
+        this.cubesZ = cubesZ;
+        this.block = block;
+    }
+
+
+    /**
+     * Get the block set by the {@code obj2mc.fill} property.
+     *
+     * @return the name of the block to fill with, or null if filling is off
+     */
+    static String getFillBlock(){
+        String value = System.getProperty(FILL_PROPERTY);
+        if(value == null || value.trim().isEmpty() || value.equalsIgnoreCase("false")) return null;
+        return value.trim();
+    }
+
+
+    /**
+     * Fill the interior of the model in a world that holds its shell.
+     *
+     * @param world the world to add blocks to
+     * @return      the number of blocks added
+     */
+    int fill(World world){
+        //the blocks of layer y are at y + 1 in the world
+        BitSet[] shell = world.getColumns(cubesX, cubesZ);
+
+        //sort the faces into strips of columns along X
+        int stripBlocks = ConverterGUI.TILE_BLOCKS;
+        int nStrips = (cubesX + stripBlocks - 1) / stripBlocks;
+        IntList[] strips = new IntList[nStrips];
+        for(int i = 0; i < nStrips; i++) strips[i] = new IntList();
+        int[] range = new int[4];
+        for(int face = 0; face < mesh.getFaceCount(); face++){
+            if(!getColumnRange(face, range)) continue;
+            for(int s = range[0] / stripBlocks; s <= range[2] / stripBlocks; s++){
+                strips[s].add(face);
+            }
+        }
+
+        List<ForkJoinTask<Integer>> tasks = new ArrayList<>();
+        for(int s = 0; s < nStrips; s++){
+            int strip = s;
+            tasks.add(ForkJoinTask.adapt(() -> fillStrip(world, shell, strips[strip],
+                    strip * stripBlocks, Math.min(strip * stripBlocks + stripBlocks, cubesX))));
+        }
+        ForkJoinPool pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+        try{
+            pool.invoke(ForkJoinTask.adapt(() -> ForkJoinTask.invokeAll(tasks)));
+        } finally {
+            pool.shutdown();
+        }
+        int added = 0;
+        for(ForkJoinTask<Integer> task : tasks) added += task.join();
+        return added;
+    }
+
+    /**
+     * Fill the columns of a strip, from {@code startX} up to but not
+     * including {@code endX}.
+     */
+    private int fillStrip(World world, BitSet[] shell, IntList faces, int startX, int endX){
+        int width = endX - startX;
+        FloatList[] hits = new FloatList[width * cubesZ];
+        int[] range = new int[4];
+        for(int i = 0; i < faces.size(); i++){
+            int face = faces.get(i);
+            getColumnRange(face, range);
+            for(int x = Math.max(range[0], startX); x <= Math.min(range[2], endX - 1); x++){
+                float px = x * cubeSize + min.x + BOX_MIDDLE * cubeSize;
+                for(int z = range[1]; z <= range[3]; z++){
+                    float pz = z * cubeSize + min.z + BOX_MIDDLE * cubeSize;
+                    float y = intersect(face, px, pz);
+                    if(Float.isNaN(y)) continue;
+                    int column = (x - startX) * cubesZ + z;
+                    if(hits[column] == null) hits[column] = new FloatList();
+                    hits[column].add(y);
+                }
+            }
+        }
+
+        List<Block> blocks = new ArrayList<>();
+        BitSet column = new BitSet(cubesY + 2);
+        for(int x = startX; x < endX; x++){
+            for(int z = 0; z < cubesZ; z++){
+                FloatList list = hits[(x - startX) * cubesZ + z];
+                if(list == null || list.size() < 2) continue;
+                float[] ys = list.toArray();
+                Arrays.sort(ys);
+                //fill each span from an entry to the next exit
+                column.clear();
+                for(int i = 0; i + 1 < ys.length; i += 2){
+                    int first = (int) Math.ceil((ys[i] - min.y) / cubeSize - BOX_MIDDLE);
+                    int last = (int) Math.floor((ys[i + 1] - min.y) / cubeSize - BOX_MIDDLE);
+                    first = Math.max(first, -1);
+                    last = Math.min(last, cubesY);
+                    if(first <= last) column.set(first + 1, last + 2);
+                }
+                BitSet walls = shell[x * cubesZ + z];
+                if(walls != null) column.andNot(walls);
+                for(int y = column.nextSetBit(0); y >= 0; y = column.nextSetBit(y + 1)){
+                    blocks.add(new Block(block, x, y, z));
+                }
+            }
+        }
+        world.addBlocks(blocks);
+        return blocks.size();
+    }
+
+    /**
+     * Find the columns whose rays may cross a face.
+     *
+     * @param face  the face
+     * @param range the array to write the lowest x, z and highest x, z column
+     *              to
+     * @return      false if no column's ray may cross the face
+     */
+    private boolean getColumnRange(int face, int[] range){
+        float loX = (mesh.bounds[face * 6] - min.x) / cubeSize - BOX_MIDDLE;
+        float loZ = (mesh.bounds[face * 6 + 2] - min.z) / cubeSize - BOX_MIDDLE;
+        float hiX = (mesh.bounds[face * 6 + 3] - min.x) / cubeSize - BOX_MIDDLE;
+        float hiZ = (mesh.bounds[face * 6 + 5] - min.z) / cubeSize - BOX_MIDDLE;
+        //widen by a block so rounding can't drop one
+        range[0] = Math.max((int) Math.ceil(loX) - 1, 0);
+        range[1] = Math.max((int) Math.ceil(loZ) - 1, 0);
+        range[2] = Math.min((int) Math.floor(hiX) + 1, cubesX - 1);
+        range[3] = Math.min((int) Math.floor(hiZ) + 1, cubesZ - 1);
+        return range[0] <= range[2] && range[1] <= range[3];
+    }
+
+    /**
+     * Find where the vertical ray through {@code (px, pz)} crosses a face.
+     * A ray through an edge shared by two faces crosses exactly one of them,
+     * so no crossing is counted twice or missed.
+     *
+     * @return the Y coordinate of the crossing, or NaN if there is none
+     */
+    private float intersect(int face, float px, float pz){
+        int v0 = mesh.indices[face * 3] * 3;
+        int v1 = mesh.indices[face * 3 + 1] * 3;
+        int v2 = mesh.indices[face * 3 + 2] * 3;
+        float w0 = edge(v1, v2, px, pz);
+        float w1 = edge(v2, v0, px, pz);
+        float w2 = edge(v0, v1, px, pz);
+        float area = w0 + w1 + w2;
+        if(area == 0.0f) return Float.NaN;
+        //wind the face the same way as seen from above
+        boolean flip = area < 0.0f;
+        if(flip){
+            w0 = -w0; w1 = -w1; w2 = -w2; area = -area;
+        }
+        //on an edge, only the face on one side of it counts
+        if(!inside(w0, v1, v2, flip) || !inside(w1, v2, v0, flip) || !inside(w2, v0, v1, flip)) return Float.NaN;
+        return (w0 * mesh.positions[v0 + 1] + w1 * mesh.positions[v1 + 1] + w2 * mesh.positions[v2 + 1]) / area;
+    }
+
+    /**
+     * Get twice the signed area, in the XZ plane, of the triangle of an edge
+     * and a point. The edge's ends are always taken in the same order, so
+     * the two faces of a shared edge get results of exactly opposite sign.
+     */
+    private float edge(int a, int b, float px, float pz){
+        float[] p = mesh.positions;
+        boolean swap = p[a] > p[b] || (p[a] == p[b] && p[a + 2] > p[b + 2]);
+        if(swap){
+            int t = a; a = b; b = t;
+        }
+        float w = (p[b] - p[a]) * (pz - p[a + 2]) - (p[b + 2] - p[a + 2]) * (px - p[a]);
+        return swap ? -w : w;
+    }
+
+    /**
+     * Check whether a point is on the inner side of an edge from {@code a}
+     * to {@code b}, given the edge function of the point with the face's
+     * winding made positive. A point on the edge is inside for only one of
+     * the two directions along it.
+     */
+    private boolean inside(float w, int a, int b, boolean flip){
+        if(w != 0.0f) return w > 0.0f;
+        float[] p = mesh.positions;
+        float dx = p[b] - p[a], dz = p[b + 2] - p[a + 2];
+        if(flip){
+            dx = -dx; dz = -dz;
+        }
+        return dz > 0.0f || (dz == 0.0f && dx < 0.0f);
+    }
+
+}
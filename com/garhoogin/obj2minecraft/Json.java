@@ -0,0 +1,220 @@
+package com.garhoogin.obj2minecraft;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The {@code Json} class is a minimal JSON parser, enough to read the JSON
+ * chunk of a GLB file. Objects are parsed to {@code Map<String, Object>},
+ * arrays to {@code List<Object>}, numbers to {@code Double}, and strings,
+ * booleans and null to {@code String}, {@code Boolean} and {@code null}.
+ *
+ * @author Declan Moore
+ */
+final class Json {
+
+    private final String text;
+    private int pos;
+
+    private Json(String text){
+        this.text = text;
+    }
+
+
+    /**
+     * Parse a JSON document.
+     *
+     * @param text         the JSON text
+     * @return             the parsed value
+     * @throws IOException if the text is not valid JSON
+     */
+    static Object parse(String text) throws IOException{
+        Json json = new Json(text);
+        Object value = json.readValue();
+        json.skipSpace();
+        if(json.pos < text.length()) throw json.error("Unexpected data after JSON value");
+        return value;
+    }
+
+
+    /**
+     * Get a member of a JSON object.
+     *
+     * @param object the object, or null
+     * @param key    the member name
+     * @return       the member, or null if it, or the object, is missing
+     */
+    @SuppressWarnings("unchecked")
+    static Object get(Object object, String key){
+        return object instanceof Map ? ((Map<String, Object>) object).get(key) : null;
+    }
+
+
+    /**
+     * Get an element of a JSON array.
+     *
+     * @param array the array, or null
+     * @param index the element index
+     * @return      the element, or null if it, or the array, is missing
+     */
+    static Object get(Object array, int index){
+        if(!(array instanceof List)) return null;
+        List<?> list = (List<?>) array;
+        return index >= 0 && index < list.size() ? list.get(index) : null;
+    }
+
+
+    /**
+     * Get the length of a JSON array.
+     *
+     * @param array the array, or null
+     * @return      the length of the array, or 0 if it is missing
+     */
+    static int size(Object array){
+        return array instanceof List ? ((List<?>) array).size() : 0;
+    }
+
+
+    /**
+     * Get a JSON value as an integer.
+     *
+     * @param value        the value, or null
+     * @param defaultValue the value to return if it is missing
+     * @return             the value as an integer
+     */
+    static int getInt(Object value, int defaultValue){
+        return value instanceof Number ? ((Number) value).intValue() : defaultValue;
+    }
+
+    private Object readValue() throws IOException{
+        skipSpace();
+        if(pos >= text.length()) throw error("Unexpected end of JSON");
+        char c = text.charAt(pos);
+        switch(c){
+            case '{':
+                return readObject();
+            case '[':
+                return readArray();
+            case '"':
+                return readString();
+            case 't':
+                expect("true");
+                return Boolean.TRUE;
+            case 'f':
+                expect("false");
+                return Boolean.FALSE;
+            case 'n':
+                expect("null");
+                return null;
+            default:
+                return readNumber();
+        }
+    }
+
+    private Map<String, Object> readObject() throws IOException{
+        Map<String, Object> object = new LinkedHashMap<>();
+        pos++;
+        skipSpace();
+        if(peek() == '}'){
+            pos++;
+            return object;
+        }
+        while(true){
+            skipSpace();
+            if(peek() != '"') throw error("Expected a member name");
+            String key = readString();
+            skipSpace();
+            if(peek() != ':') throw error("Expected ':'");
+            pos++;
+            object.put(key, readValue());
+            skipSpace();
+            char c = peek();
+            pos++;
+            if(c == '}') return object;
+            if(c != ',') throw error("Expected ',' or '}'");
+        }
+    }
+
+    private List<Object> readArray() throws IOException{
+        List<Object> array = new ArrayList<>();
+        pos++;
+        skipSpace();
+        if(peek() == ']'){
+            pos++;
+            return array;
+        }
+        while(true){
+            array.add(readValue());
+            skipSpace();
+            char c = peek();
+            pos++;
+            if(c == ']') return array;
+            if(c != ',') throw error("Expected ',' or ']'");
+        }
+    }
+
+    private String readString() throws IOException{
+        StringBuilder sb = new StringBuilder();
+        pos++;
+        while(true){
+            if(pos >= text.length()) throw error("Unterminated string");
+            char c = text.charAt(pos++);
+            if(c == '"') return sb.toString();
+            if(c != '\\'){
+                sb.append(c);
+                continue;
+            }
+            if(pos >= text.length()) throw error("Unterminated string");
+            c = text.charAt(pos++);
+            switch(c){
+                case 'b': sb.append('\b'); break;
+                case 'f': sb.append('\f'); break;
+                case 'n': sb.append('\n'); break;
+                case 'r': sb.append('\r'); break;
+                case 't': sb.append('\t'); break;
+                case 'u':
+                    if(pos + 4 > text.length()) throw error("Bad escape");
+                    try{
+                        sb.append((char) Integer.parseInt(text.substring(pos, pos + 4), 16));
+                    } catch(NumberFormatException ex){
+                        throw error("Bad escape");
+                    }
+                    pos += 4;
+                    break;
+                default: sb.append(c); break;
+            }
+        }
+    }
+
+    private Double readNumber() throws IOException{
+        int start = pos;
+        while(pos < text.length() && "+-0123456789.eE".indexOf(text.charAt(pos)) != -1) pos++;
+        try{
+            return Double.valueOf(text.substring(start, pos));
+        } catch(NumberFormatException ex){
+            pos = start;
+            throw error("Bad value");
+        }
+    }
+
+    private void expect(String word) throws IOException{
+        if(!text.startsWith(word, pos)) throw error("Bad value");
+        pos += word.length();
+    }
+
+    private char peek(){
+        return pos < text.length() ? text.charAt(pos) : 0;
+    }
+
+    private void skipSpace(){
+        while(pos < text.length() && Character.isWhitespace(text.charAt(pos))) pos++;
+    }
+
+    private IOException error(String message){
+        return new IOException(message + " at offset " + pos);
+    }
+
+}
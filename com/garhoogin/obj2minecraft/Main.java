@@ -19,106 +19,89 @@ public class Main {
 	return Math.min(p, q) > r || Math.max(p, q) < -r;
     }
     
-    static boolean pointInBox(Vec3 position, Vec3 boxMin, Vec3 boxMax){
-        return !(position.x < boxMin.x || position.x > boxMax.x
-                || position.y < boxMin.y || position.y > boxMax.y
-                || position.z < boxMin.z || position.z > boxMax.z);
-    }
-    
-    //based off of code by Gericom
-    static boolean tricube_overlap_one(Triangle t, Vec3 position_, float half){
-        Vec3 position = position_.add(new Vec3(half, half, half));//position += new Vector3(half, half, half);
-        Vec3 v0 = t.a.subtract(position); //test 2: swap with v1
-        Vec3 v1 = t.b.subtract(position); //test 2: swap with v0
-        Vec3 v2 = t.c.subtract(position);
-        Vec3 normal = t.normal; //test 2: negate
-        float d = normal.dot(v0);
-        float r = half * (Math.abs(normal.x) + Math.abs(normal.y) + Math.abs(normal.z));
+    //based off of code by Gericom. The separating axis test is the same for
+    //either winding, so one test covers both sides of the face.
+    static boolean tricube_overlap_one(Mesh mesh, int face, float x, float y, float z, float half){
+        float[] positions = mesh.positions;
+        int a = mesh.indices[face * 3] * 3;
+        int b = mesh.indices[face * 3 + 1] * 3;
+        int c = mesh.indices[face * 3 + 2] * 3;
+        x += half; //position += new Vector3(half, half, half);
+        y += half;
+        z += half;
+        float v0x = positions[a] - x, v0y = positions[a + 1] - y, v0z = positions[a + 2] - z;
+        float v1x = positions[b] - x, v1y = positions[b + 1] - y, v1z = positions[b + 2] - z;
+        float v2x = positions[c] - x, v2y = positions[c + 1] - y, v2z = positions[c + 2] - z;
+        float nx = mesh.planes[face * 4], ny = mesh.planes[face * 4 + 1], nz = mesh.planes[face * 4 + 2];
+        float d = nx * v0x + ny * v0y + nz * v0z;
+        float r = half * (Math.abs(nx) + Math.abs(ny) + Math.abs(nz));
         if (d > r || d < -r) return false;
-        Vec3 e = v1.subtract(v0);//v1 - v0;
-        if (axis_test(e.z, -e.x, v0.y, v0.z, v2.y, v2.z, half)) return false;
-        if (axis_test(-e.z, e.x, v0.x, v0.z, v2.x, v2.z, half)) return false;
-        if (axis_test(e.y, -e.x, v1.x, v1.y, v2.x, v2.y, half)) return false;
-        e = v2.subtract(v1);//e = v2 - v1;
-        if (axis_test(e.z, -e.y, v0.y, v0.z, v2.y, v2.z, half)) return false;
-        if (axis_test(-e.z, e.x, v0.x, v0.z, v2.x, v2.z, half)) return false;
-        if (axis_test(e.y, -e.x, v0.x, v0.y, v1.x, v1.y, half)) return false;
-        e = v0.subtract(v2);//e = v0 - v2;
-        if (axis_test(e.z, -e.y, v0.y, v0.z, v1.y, v1.z, half)) return false;
-        if (axis_test(-e.z, e.x, v0.x, v0.z, v1.x, v1.z, half)) return false;
-        if (axis_test(e.y, -e.x, v1.x, v1.y, v2.x, v2.y, half)) return false;
+        float ex = v1x - v0x, ey = v1y - v0y, ez = v1z - v0z; //v1 - v0;
+        if (axis_test(ez, -ey, v0y, v0z, v2y, v2z, half)) return false;
+        if (axis_test(-ez, ex, v0x, v0z, v2x, v2z, half)) return false;
+        if (axis_test(ey, -ex, v1x, v1y, v2x, v2y, half)) return false;
+        ex = v2x - v1x; ey = v2y - v1y; ez = v2z - v1z; //e = v2 - v1;
+        if (axis_test(ez, -ey, v0y, v0z, v2y, v2z, half)) return false;
+        if (axis_test(-ez, ex, v0x, v0z, v2x, v2z, half)) return false;
+        if (axis_test(ey, -ex, v0x, v0y, v1x, v1y, half)) return false;
+        ex = v0x - v2x; ey = v0y - v2y; ez = v0z - v2z; //e = v0 - v2;
+        if (axis_test(ez, -ey, v0y, v0z, v1y, v1z, half)) return false;
+        if (axis_test(-ez, ex, v0x, v0z, v1x, v1z, half)) return false;
+        if (axis_test(ey, -ex, v1x, v1y, v2x, v2y, half)) return false;
         return true;
     }
     
-    //original function only seemed to work when triangles faced in a certain direction
-    static boolean tricube_overlap(Triangle t, Vec3 position, float boxSize){
-        Vec3 triangleMin = t.getMinimum().subtract(new Vec3(boxSize, boxSize, boxSize));
-        Vec3 triangleMax = t.getMaximum().add(new Vec3(boxSize, boxSize, boxSize));
-        
-        if(position.x < triangleMin.x || position.x > triangleMax.x
-                || position.y < triangleMin.y || position.y > triangleMax.y
-                || position.z < triangleMin.z || position.z > triangleMax.z) return false;
+    static boolean tricube_overlap(Mesh mesh, int face, float x, float y, float z, float boxSize){
+        float[] bounds = mesh.bounds;
+        int i = face * 6;
+        if(x < bounds[i] - boxSize || x > bounds[i + 3] + boxSize
+                || y < bounds[i + 1] - boxSize || y > bounds[i + 4] + boxSize
+                || z < bounds[i + 2] - boxSize || z > bounds[i + 5] + boxSize) return false;
         
-        return tricube_overlap_one(t, position, 0.5f * boxSize);
-    }
-    
-    static boolean tricube_overlap2(Triangle t, Vec3 position, float boxSize){
-        float half = 0.5f * boxSize;
-        Vec3 triangleMin = t.getMinimum().subtract(new Vec3(boxSize, boxSize, boxSize));
-        Vec3 triangleMax = t.getMaximum().add(new Vec3(boxSize, boxSize, boxSize));
-        if(!pointInBox(position, triangleMin, triangleMax)) return false;
-        
-        if(tricube_overlap_one(t, position, half)) return true;
-        Triangle t1 = Triangle.flip(t);
-        
-        return tricube_overlap_one(t1, position, half);
+        return tricube_overlap_one(mesh, face, x, y, z, 0.5f * boxSize);
     }
     
     /**
-     * Samples a color of a triangle at a given position, which is a block
-     * position at the center.
+     * Samples a color of a face of a mesh at a given position, which is a
+     * block position at the center.
      * 
-     * @param triangle the triangle being sampled
-     * @param textures the texture list
+     * @param mesh     the mesh being sampled
+     * @param face     the index of the face being sampled
+     * @param textures the texture loader
      * @param position the position to sample
      * @param boxSize  the size of a box in model space
-     * @return         the sampled color of the triangle
+     * @return         the sampled color of the face
      */
-    public static Color sampleColor(Triangle triangle, Map<String, Texture> textures, Vec3 position, Vec3 boxSize){
-        //make a list of colors.
-        List<Color> colors = new ArrayList<>(28);
-        Vec3 base = position.subtract(boxSize.multiply(0.25f));
-        float halfSize = boxSize.x * 0.5f;
-        float quarterSize = 0.5f * halfSize;
-        Texture texture = textures.get(triangle.texture);
+    public static Color sampleColor(Mesh mesh, int face, TextureLoader textures, Vec3 position, Vec3 boxSize){
+        Texture texture = textures.get(mesh.getMaterial(face));
+        if(texture == null) return new Color(127, 127, 127);
+        float quarterSize = 0.25f * boxSize.x;
+        float baseX = position.x - boxSize.x * 0.25f;
+        float baseY = position.y - boxSize.y * 0.25f;
+        float baseZ = position.z - boxSize.z * 0.25f;
         
         int nFilled = 0;
         
-        {
-            Vec3 onTri = triangle.perpendicular(position);
-            Vec3 bary = triangle.getBarycentric(onTri);
-            Coord uv = triangle.getTexCoord(bary);
-            Color c = texture.sample(uv.x, uv.y);
-            colors.add(c);
-        }
-        
-        Coord uvMin = null, uvMax = null;
+        float uMin = 0.0f, vMin = 0.0f, uMax = 0.0f, vMax = 0.0f;
         
         for(int x = 0; x < 3; x++){
             for(int y = 0; y < 3; y++){
                 for(int z = 0; z < 3; z++){
-                    Vec3 newPosition = base.add(new Vec3(x * quarterSize, y * quarterSize, z * quarterSize));
-                    if(!tricube_overlap2(triangle, newPosition, boxSize.x * 0.5f)) continue; //.75 should be .5
+                    float sx = baseX + x * quarterSize;
+                    float sy = baseY + y * quarterSize;
+                    float sz = baseZ + z * quarterSize;
+                    if(!tricube_overlap(mesh, face, sx, sy, sz, boxSize.x * 0.5f)) continue; //.75 should be .5
                     //this sub-cube overlaps. Sample it.
-                    Vec3 onTri = triangle.perpendicular(newPosition);
-                    Vec3 bary = triangle.getBarycentric(onTri);
-                    Coord uv = triangle.getTexCoord(bary);
-                    if(uvMin == null || uvMax == null){
-                        uvMin = uv;
-                        uvMax = uv;
+                    float u = mesh.getU(face, sx, sy, sz);
+                    float v = mesh.getV(face, sx, sy, sz);
+                    if(nFilled == 0){
+                        uMin = uMax = u;
+                        vMin = vMax = v;
                     } else {
-                        uvMin = uvMin.min(uv);
-                        uvMax = uvMax.max(uv);
+                        uMin = Math.min(uMin, u);
+                        vMin = Math.min(vMin, v);
+                        uMax = Math.max(uMax, u);
+                        vMax = Math.max(vMax, v);
                     }
                     nFilled++;
                 }
@@ -126,13 +109,90 @@ public class Main {
         }
         
         if(nFilled == 0){
-            //no sub-boxes collided for whatever reason. Just return color 0.
-            return colors.get(0);
+            //no sub-boxes collided for whatever reason. Just sample the center.
+            float u = mesh.getU(face, position.x, position.y, position.z);
+            float v = mesh.getV(face, position.x, position.y, position.z);
+            return new Color(texture.sampleRGB(u, v), true);
         }
         
         //now, we imagine a box made by uvMin and uvMax. Sample all pixels
         //in this box.
-        return texture.sample(uvMin, uvMax);
+        return new Color(texture.sampleRGB(uMin, vMin, uMax, vMax), true);
+    }
+    
+    /**
+     * Check cheaply whether {@link #sampleColor} may find a face opaque
+     * enough to show in a block. Texture coordinates are an affine function
+     * of position, so those of every point it samples lie in a rectangle
+     * found from the center and the gradients of the face's mapping, and the
+     * average alpha can't reach 85 unless a texel in that rectangle does.
+     * 
+     * @param mesh     the mesh being sampled
+     * @param face     the index of the face being sampled
+     * @param textures the texture loader
+     * @param position the position to sample
+     * @param boxSize  the size of a box in model space
+     * @return         false only if the sampled color's alpha would be
+     *                 below 85
+     */
+    public static boolean mayShow(Mesh mesh, int face, TextureLoader textures, Vec3 position, Vec3 boxSize){
+        Texture texture = textures.get(mesh.getMaterial(face));
+        if(texture == null) return true;
+        float step = 0.25f * boxSize.x;
+        float u = mesh.getU(face, position.x, position.y, position.z);
+        float v = mesh.getV(face, position.x, position.y, position.z);
+        float[] maps = mesh.uvMaps;
+        int m = face * 8;
+        float du = step * (Math.abs(maps[m]) + Math.abs(maps[m + 1]) + Math.abs(maps[m + 2]));
+        float dv = step * (Math.abs(maps[m + 4]) + Math.abs(maps[m + 5]) + Math.abs(maps[m + 6]));
+        float uMin = (u - du) * texture.width, uMax = (u + du) * texture.width;
+        float vMin = (v - dv) * texture.height, vMax = (v + dv) * texture.height;
+        //degenerate faces and huge coordinates aren't worth checking
+        if(!(Math.abs(uMin) < 1.0e8f && Math.abs(uMax) < 1.0e8f && Math.abs(vMin) < 1.0e8f && Math.abs(vMax) < 1.0e8f)) return true;
+        //widen by a couple of texels, for the 3x3 fallback and rounding
+        return texture.getAlphaMask().mayBeOpaque((int) Math.floor(uMin) - 2, (int) Math.floor(vMin) - 2,
+                (int) Math.floor(uMax) + 3, (int) Math.floor(vMax) + 3);
+    }
+    
+    
+    /**
+     * the size of the box the overlap test uses, in blocks; it is a bit
+     * larger than a block
+     */
+    static final float TEST_BOX_SCALE = 1.2f;
+    
+    /**
+     * Find the first block along one axis that a face can overlap, with no
+     * box to clamp it to.
+     * 
+     * @param faceMin  the face's lowest coordinate along the axis
+     * @param cubeSize the size of a block in model space
+     * @param origin   the smallest coordinate in the model along the axis
+     * @return         the index of the first block
+     * @see            LayererThread#getBlockRange
+     */
+    static int getFirstBlock(float faceMin, float cubeSize, float origin){
+        float reach = TEST_BOX_SCALE * cubeSize;
+        //a block's center is at (index + 0.5) * cubeSize + origin;
+        //widen by a block so rounding can't drop one
+        float lo = (faceMin - reach - origin) / cubeSize - 0.5f;
+        return (int) Math.ceil(lo) - 1;
+    }
+    
+    /**
+     * Find the last block along one axis that a face can overlap, with no
+     * box to clamp it to.
+     * 
+     * @param faceMax  the face's highest coordinate along the axis
+     * @param cubeSize the size of a block in model space
+     * @param origin   the smallest coordinate in the model along the axis
+     * @return         the index of the last block
+     * @see            LayererThread#getBlockRange
+     */
+    static int getLastBlock(float faceMax, float cubeSize, float origin){
+        float reach = TEST_BOX_SCALE * cubeSize;
+        float hi = (faceMax + reach - origin) / cubeSize - 0.5f;
+        return (int) Math.floor(hi) + 1;
     }
     
     
@@ -153,16 +213,47 @@ public class Main {
 
 class LayererThread implements Runnable{
     
+    /**
+     * the largest size, as a fraction of a block, of a face that is splatted:
+     * tested only against the few blocks around it, and colored once for its
+     * whole texture footprint, instead of being tested by every block.
+     */
+    static final float SPLAT_SIZE = 1.0f;
+    
+    /**
+     * the system property naming the voxelizer to use: {@code voxel}, which
+     * asks of every block which face covers it, or {@code raster}, which
+     * asks of every face which blocks it covers
+     */
+    static final String ENGINE_PROPERTY = "obj2mc.engine";
+    
     public final int minY;
     public final int nLayers;
-    private final Triangle[] t;
+    private final int minX;
+    private final int minZ;
+    private final int sizeX;
+    private final int sizeZ;
+    private final int[] box;
+    private final int[] faceRanges;
+    private final BitSet occupied;
+    private final int bricksY;
+    private final int bricksZ;
+    private VoxelGrid occupancy;
+    private final Mesh mesh;
+    private final int[] faces;
+    private final TriangleGrid grid;
+    private final OverlapKernel kernel;
+    private final TriangleBvh bvh;
+    private final TriangleBvh nearestBvh;
+    private final int[] smallFaces;
+    private final int[] splatBounds;
+    private final int[] layerStart;
+    private final int[] layerFaces;
     private final World world;
-    private final int cubesX;
     private final int cubesY;
-    private final int cubesZ;
     private final float cubeSize;
     private final Vec3 min;
-    private final Map<String, Texture> textures;
+    private final TextureLoader textures;
     public boolean done;
     private final MaterialSet materialSet;
     private Thread thread;
@@ -170,9 +261,9 @@ class LayererThread implements Runnable{
     
     
     /**
-     * Create a new layerer. 
+     * Create a new layerer for a section of whole layers.
      * 
-     * @param triangles      the full set of triangles
+     * @param mesh           the mesh to layer
      * @param world          the world object to write to
      * @param materialSet    the set of materials
      * @param textures       the set of textures
@@ -185,43 +276,396 @@ class LayererThread implements Runnable{
      * @param nLayers        the number of layers to make
      * @param completeLayers a list for keeping track of complete layers
      */
-    public LayererThread(Triangle[] triangles, World world, MaterialSet materialSet, Map<String, Texture> textures, float cubeSize, Vec3 min, int minY, int cubesX, int cubesY, int cubesZ, int nLayers, ConverterGUI.ProgressWindow completeLayers){
-        if(minY == 0){
-            minY = -1;
-            nLayers++;
-        } //little hack
+    public LayererThread(Mesh mesh, World world, MaterialSet materialSet, TextureLoader textures, float cubeSize, Vec3 min, int minY, int cubesX, int cubesY, int cubesZ, int nLayers, ConverterGUI.ProgressWindow completeLayers){
+        //little hack: the first section starts a layer early
+        this(mesh, null, world, materialSet, textures, cubeSize, min, 0, minY == 0 ? -1 : minY, 0, 
+                cubesX, minY == 0 ? nLayers + 1 : nLayers, cubesZ, cubesY, completeLayers);
+    }
+    
+    /**
+     * Create a new layerer for a box of blocks.
+     * 
+     * @param mesh           the mesh to layer
+     * @param candidates     the faces that may touch the box, in ascending
+     *                       order, or null to consider every face
+     * @param world          the world object to write to
+     * @param materialSet    the set of materials
+     * @param textures       the set of textures
+     * @param cubeSize       the size of a block in model space
+     * @param min            the smallest coordinate in the model
+     * @param minX           the first block of the box in the X direction
+     * @param minY           the first layer of the box
+     * @param minZ           the first block of the box in the Z direction
+     * @param sizeX          the number of blocks in the X direction
+     * @param nLayers        the number of layers
+     * @param sizeZ          the number of blocks in the Z direction
+     * @param cubesY         the number of cubes in the Y direction
+     * @param completeLayers a list for keeping track of complete layers
+     */
+    public LayererThread(Mesh mesh, int[] candidates, World world, MaterialSet materialSet, TextureLoader textures, float cubeSize, Vec3 min, 
+            int minX, int minY, int minZ, int sizeX, int nLayers, int sizeZ, int cubesY, ConverterGUI.ProgressWindow completeLayers){
+        this.minX = minX;
         this.minY = minY;
+        this.minZ = minZ;
+        this.sizeX = sizeX;
         this.nLayers = nLayers;
+        this.sizeZ = sizeZ;
         this.world = world;
         this.done = false;
-        this.cubesX = cubesX;
         this.cubesY = cubesY;
-        this.cubesZ = cubesZ;
         this.cubeSize = cubeSize;
         this.min = min;
         this.textures = textures;
         this.materialSet = materialSet;
         this.progressWindow = completeLayers;
-        this.progressWindow.layersProgressBar.setMaximum(cubesY);
-        //determine which triangles can actually be seen from this section
-        List<Triangle> triangleList = new ArrayList<>();
-        float minModelY = minY * cubeSize + min.y + 0.5f * cubeSize;
-        float maxModelY = (minY + nLayers) * cubeSize + min.y + 0.5f * cubeSize;
-        Vec3 halfBox = new Vec3(0.5f * cubeSize, 0.5f * cubeSize, 0.5f * cubeSize);
-        for(Triangle t1 : triangles){
-            Vec3 t1min = t1.getMinimum().subtract(halfBox);
-            Vec3 t1max = t1.getMaximum().add(halfBox);
-            if(t1min.y > maxModelY) continue;
-            if(t1max.y < minModelY) continue;
-            triangleList.add(t1);
+        this.mesh = mesh;
+        int lastY = Math.min(minY + nLayers - 1, cubesY);
+        this.box = new int[]{minX, minY, minZ, minX + sizeX - 1, lastY, minZ + sizeZ - 1};
+        //determine which faces can actually reach this box
+        IntList faceList = new IntList();
+        IntList smallList = new IntList();
+        float splatSize = SPLAT_SIZE * cubeSize;
+        int[] range = new int[6];
+        int nCandidates = candidates != null ? candidates.length : mesh.getFaceCount();
+        for(int j = 0; j < nCandidates; j++){
+            int i = candidates != null ? candidates[j] : j;
+            getBlockRange(mesh, i, cubeSize, min, box, range, 0);
+            if(range[0] > range[3] || range[1] > range[4] || range[2] > range[5]) continue;
+            if(mesh.bounds[i * 6 + 3] - mesh.bounds[i * 6] <= splatSize
+                    && mesh.bounds[i * 6 + 4] - mesh.bounds[i * 6 + 1] <= splatSize
+                    && mesh.bounds[i * 6 + 5] - mesh.bounds[i * 6 + 2] <= splatSize){
+                smallList.add(i);
+            } else {
+                faceList.add(i);
+            }
+        }
+        this.faces = faceList.toArray();
+        this.smallFaces = smallList.toArray();
+        
+        //each block only tests the faces listed in its cell of the grid, or
+        //those the hierarchy finds near it
+        this.faceRanges = getBlockRanges(mesh, faces, cubeSize, min, box);
+        if(isRasterEngine()){
+            this.grid = null;
+            this.bvh = null;
+        } else if(TriangleBvh.isSelected()){
+            this.grid = null;
+            this.bvh = new TriangleBvh(mesh, faces);
+        } else {
+            this.grid = new TriangleGrid(faces, faceRanges, minX, minY, minZ, 
+                    sizeX, nLayers, sizeZ, TriangleGrid.CELL_BLOCKS);
+            this.bvh = null;
+        }
+        this.kernel = grid != null ? OverlapKernel.create(mesh, grid.cellFaces) : null;
+        if(TriangleBvh.isNearestEnabled()){
+            int[] allFaces = Arrays.copyOf(faces, faces.length + smallFaces.length);
+            System.arraycopy(smallFaces, 0, allFaces, faces.length, smallFaces.length);
+            Arrays.sort(allFaces);
+            this.nearestBvh = new TriangleBvh(mesh, allFaces);
+        } else {
+            this.nearestBvh = null;
         }
-        this.t = triangleList.toArray(new Triangle[0]);
+        
+        //list the small faces by the layers they can touch, in face order
+        this.splatBounds = getBlockRanges(mesh, smallFaces, cubeSize, min, box);
+        this.layerStart = new int[nLayers + 1];
+        for(int i = 0; i < smallFaces.length; i++){
+            for(int y = splatBounds[i * 6 + 1]; y <= splatBounds[i * 6 + 4]; y++){
+                layerStart[y - minY + 1]++;
+            }
+        }
+        for(int i = 0; i < nLayers; i++){
+            layerStart[i + 1] += layerStart[i];
+        }
+        this.layerFaces = new int[layerStart[nLayers]];
+        int[] fill = Arrays.copyOf(layerStart, nLayers);
+        for(int i = 0; i < smallFaces.length; i++){
+            for(int y = splatBounds[i * 6 + 1]; y <= splatBounds[i * 6 + 4]; y++){
+                layerFaces[fill[y - minY]++] = i;
+            }
+        }
+        
+        //mark the bricks any face can reach, so that the blocks of the rest
+        //are skipped with one check
+        this.bricksY = (nLayers + VoxelGrid.BRICK_BLOCKS - 1) / VoxelGrid.BRICK_BLOCKS;
+        this.bricksZ = (sizeZ + VoxelGrid.BRICK_BLOCKS - 1) / VoxelGrid.BRICK_BLOCKS;
+        this.occupied = new BitSet();
+        markBricks(faceRanges, faces.length);
+        markBricks(splatBounds, smallFaces.length);
+    }
+    
+    /**
+     * Mark the bricks that the block ranges of a list of faces touch.
+     */
+    private void markBricks(int[] ranges, int n){
+        int b = VoxelGrid.BRICK_BLOCKS;
+        for(int i = 0; i < n; i++){
+            if(ranges[i * 6] > ranges[i * 6 + 3] || ranges[i * 6 + 1] > ranges[i * 6 + 4]
+                    || ranges[i * 6 + 2] > ranges[i * 6 + 5]) continue;
+            for(int bx = (ranges[i * 6] - minX) / b; bx <= (ranges[i * 6 + 3] - minX) / b; bx++){
+                for(int by = (ranges[i * 6 + 1] - minY) / b; by <= (ranges[i * 6 + 4] - minY) / b; by++){
+                    for(int bz = (ranges[i * 6 + 2] - minZ) / b; bz <= (ranges[i * 6 + 5] - minZ) / b; bz++){
+                        occupied.set(getBrick(bx, by, bz));
+                    }
+                }
+            }
+        }
+    }
+    
+    private int getBrick(int bx, int by, int bz){
+        return (bx * bricksY + by) * bricksZ + bz;
+    }
+    
+    /**
+     * Record every block any face overlaps, whether or not it is opaque
+     * enough to keep, in a set while layering. Block {@code (x, y, z)} is
+     * stored at {@code (x, y + 1, z)}, since layers start at -1. Layerers
+     * may share a set as long as their boxes don't share a brick of it.
+     * 
+     * @param occupancy the set to add blocks to, or null to record none
+     */
+    void recordOccupancy(VoxelGrid occupancy){
+        this.occupancy = occupancy;
+    }
+    
+    /**
+     * Check whether the {@code obj2mc.engine} property selects the
+     * rasterizing voxelizer.
+     * 
+     * @return true if it is set to {@code raster}
+     */
+    static boolean isRasterEngine(){
+        return "raster".equalsIgnoreCase(System.getProperty(ENGINE_PROPERTY));
+    }
+    
+    /**
+     * Find the range of blocks, within a box, that a face can overlap. A
+     * block is only in range if its center passes the bounding box check at
+     * the start of {@code tricube_overlap}, so every block the face overlaps
+     * is in range.
+     * 
+     * @param mesh     the mesh
+     * @param face     the face
+     * @param cubeSize the size of a block in model space
+     * @param min      the smallest coordinate in the model
+     * @param box      the lowest x, y, z and highest x, y, z block of the box
+     * @param out      the array to write the lowest x, y, z and highest x, y,
+     *                 z block of the range to; an empty range has a low bound
+     *                 above the high bound
+     * @param offset   the index in {@code out} to write the range at
+     */
+    static void getBlockRange(Mesh mesh, int face, float cubeSize, Vec3 min, int[] box, int[] out, int offset){
+        for(int axis = 0; axis < 3; axis++){
+            float origin = axis == 0 ? min.x : axis == 1 ? min.y : min.z;
+            out[offset + axis] = Math.max(Main.getFirstBlock(mesh.bounds[face * 6 + axis], cubeSize, origin), box[axis]);
+            out[offset + 3 + axis] = Math.min(Main.getLastBlock(mesh.bounds[face * 6 + 3 + axis], cubeSize, origin), box[3 + axis]);
+        }
+    }
+    
+    /**
+     * Find the range of blocks, within a box, that each of a list of faces
+     * can overlap.
+     * 
+     * @param mesh     the mesh
+     * @param faceList the faces
+     * @param cubeSize the size of a block in model space
+     * @param min      the smallest coordinate in the model
+     * @param box      the lowest x, y, z and highest x, y, z block of the box
+     * @return         the range of each face as given by
+     *                 {@link #getBlockRange}, six per face
+     */
+    static int[] getBlockRanges(Mesh mesh, int[] faceList, float cubeSize, Vec3 min, int[] box){
+        int[] ranges = new int[faceList.length * 6];
+        for(int i = 0; i < faceList.length; i++){
+            getBlockRange(mesh, faceList[i], cubeSize, min, box, ranges, i * 6);
+        }
+        return ranges;
+    }
+    
+    /**
+     * Get the color of a small face from the texture under its whole
+     * footprint, rather than from sub-boxes of each block it touches. The
+     * footprint is widened to the texture area a block of the face would
+     * cover.
+     */
+    private Color getSplatColor(int face){
+        if(mesh.materials[face] < 0) return new Color(127, 127, 127);
+        Texture texture = textures.get(mesh.getMaterial(face));
+        if(texture == null) return new Color(127, 127, 127);
+        float uMin = Float.POSITIVE_INFINITY, vMin = Float.POSITIVE_INFINITY;
+        float uMax = Float.NEGATIVE_INFINITY, vMax = Float.NEGATIVE_INFINITY;
+        for(int i = 0; i < 3; i++){
+            int t = mesh.texIndices[face * 3 + i];
+            float u = t < 0 ? 0.0f : mesh.texCoords[t * 2];
+            float v = t < 0 ? 0.0f : mesh.texCoords[t * 2 + 1];
+            uMin = Math.min(uMin, u);
+            vMin = Math.min(vMin, v);
+            uMax = Math.max(uMax, u);
+            vMax = Math.max(vMax, v);
+        }
+        //the exact path averages over about a block of the face's plane, so
+        //widen the footprint to match
+        float extent = Math.max(mesh.bounds[face * 6 + 3] - mesh.bounds[face * 6],
+                Math.max(mesh.bounds[face * 6 + 4] - mesh.bounds[face * 6 + 1], mesh.bounds[face * 6 + 5] - mesh.bounds[face * 6 + 2]));
+        float scale = extent > 0.0f ? Math.max(cubeSize / extent, 1.0f) * 0.5f : 0.5f;
+        float uCenter = 0.5f * (uMin + uMax), vCenter = 0.5f * (vMin + vMax);
+        float uHalf = (uMax - uMin) * scale, vHalf = (vMax - vMin) * scale;
+        return texture.sample(new Coord(uCenter - uHalf, vCenter - vHalf), new Coord(uCenter + uHalf, vCenter + vHalf));
+    }
+    
+    /**
+     * Write a block to the world, first swapping its face for the nearest
+     * surface if that is turned on.
+     */
+    private void addBlock(int x, int y, int z, Vec3 position, int face, Color color){
+        if(nearestBvh != null){
+            //color from the surface closest to the block's center
+            int nearest = nearestBvh.nearest(position.x, position.y, position.z);
+            Vec3 boxSize = new Vec3(cubeSize, cubeSize, cubeSize);
+            if(nearest >= 0 && nearest != face
+                    && (mesh.materials[nearest] < 0 || Main.mayShow(mesh, nearest, textures, position, boxSize))){
+                Color cl = mesh.materials[nearest] >= 0
+                        ? Main.sampleColor(mesh, nearest, textures, position, boxSize)
+                        : new Color(127, 127, 127);
+                if(cl.getAlpha() >= 85){
+                    face = nearest;
+                    color = cl;
+                }
+            }
+        }
+        world.addBlock(x, y + 1, z, materialSet, mesh.getMaterial(face), color);
+    }
+    
+    /**
+     * Voxelize this section face by face. Faces are visited in order, and
+     * each claims the unclaimed blocks it covers, so every block gets the
+     * same face as the block-by-block search would give it: the first that
+     * covers it and is opaque enough. The blocks of a face are found by
+     * walking the columns of its block range along the axis its normal is
+     * closest to, and only testing the part of each column within reach of
+     * its plane. The work is then in proportion to the surface area rather
+     * than the volume of the section.
+     * 
+     * @param splatColors the colors of the small faces
+     * @return            the number of layers done
+     */
+    private int rasterize(Color[] splatColors){
+        int lastY = box[4];
+        VoxelGrid claimed = new VoxelGrid(sizeX, lastY - minY + 1, sizeZ);
+        float boxSize = cubeSize * Main.TEST_BOX_SCALE;
+        float half = 0.5f * boxSize;
+        float[] origin = {min.x, min.y, min.z};
+        int[] block = new int[3];
+        float[] center = new float[3];
+        
+        //merge the large and small faces back into face order
+        int nextLarge = 0, nextSmall = 0;
+        while(nextLarge < faces.length || nextSmall < smallFaces.length){
+            boolean small = nextLarge == faces.length
+                    || (nextSmall < smallFaces.length && smallFaces[nextSmall] < faces[nextLarge]);
+            int face, rangeIndex;
+            int[] ranges;
+            //faces too transparent to show are only recorded
+            boolean hidden = false;
+            if(small){
+                rangeIndex = nextSmall++;
+                face = smallFaces[rangeIndex];
+                ranges = splatBounds;
+                hidden = splatColors[rangeIndex].getAlpha() < 85;
+                if(hidden && occupancy == null) continue;
+            } else {
+                rangeIndex = nextLarge++;
+                face = faces[rangeIndex];
+                ranges = faceRanges;
+            }
+            
+            //walk along the axis the normal is closest to
+            float[] n = {mesh.planes[face * 4], mesh.planes[face * 4 + 1], mesh.planes[face * 4 + 2]};
+            int axis = 0;
+            for(int i = 1; i < 3; i++){
+                if(Math.abs(n[i]) > Math.abs(n[axis])) axis = i;
+            }
+            int u = (axis + 1) % 3, v = (axis + 2) % 3;
+            int v0 = mesh.indices[face * 3] * 3;
+            float planeD = n[0] * mesh.positions[v0] + n[1] * mesh.positions[v0 + 1] + n[2] * mesh.positions[v0 + 2];
+            float r = half * (Math.abs(n[0]) + Math.abs(n[1]) + Math.abs(n[2]));
+            int lo = ranges[rangeIndex * 6 + axis], hi = ranges[rangeIndex * 6 + 3 + axis];
+            
+            for(block[u] = ranges[rangeIndex * 6 + u]; block[u] <= ranges[rangeIndex * 6 + 3 + u]; block[u]++){
+                center[u] = block[u] * cubeSize + origin[u] + 0.5f * cubeSize;
+                for(block[v] = ranges[rangeIndex * 6 + v]; block[v] <= ranges[rangeIndex * 6 + 3 + v]; block[v]++){
+                    center[v] = block[v] * cubeSize + origin[v] + 0.5f * cubeSize;
+                    //the overlap test's box is offset by half its size, and
+                    //touches the plane where |planeD - n.(center + half)| <= r;
+                    //widen by a block so rounding can't drop one
+                    int first = lo, last = hi;
+                    if(Math.abs(n[axis]) > 0.0f){
+                        float k = planeD - n[u] * (center[u] + half) - n[v] * (center[v] + half) - n[axis] * half;
+                        float c1 = (k - r) / n[axis], c2 = (k + r) / n[axis];
+                        first = (int) Math.ceil((Math.min(c1, c2) - origin[axis]) / cubeSize - 0.5f) - 1;
+                        last = (int) Math.floor((Math.max(c1, c2) - origin[axis]) / cubeSize - 0.5f) + 1;
+                    }
+                    for(block[axis] = Math.max(first, lo); block[axis] <= Math.min(last, hi); block[axis]++){
+                        int x = block[0], y = block[1], z = block[2];
+                        if(claimed.contains(x - minX, y - minY, z - minZ)) continue;
+                        center[axis] = block[axis] * cubeSize + origin[axis] + 0.5f * cubeSize;
+                        if(!tricube_overlap(mesh, face, center[0], center[1], center[2], boxSize)) continue;
+                        if(occupancy != null) occupancy.add(x, y + 1, z);
+                        if(hidden) continue;
+                        Vec3 position = new Vec3(center[0], center[1], center[2]);
+                        Color color;
+                        if(small){
+                            color = splatColors[rangeIndex];
+                        } else if(mesh.materials[face] >= 0){
+                            Vec3 sampleSize = new Vec3(cubeSize, cubeSize, cubeSize);
+                            if(!Main.mayShow(mesh, face, textures, position, sampleSize)) continue;
+                            color = Main.sampleColor(mesh, face, textures, position, sampleSize);
+                            if(color.getAlpha() < 85) continue;
+                        } else {
+                            color = new Color(127, 127, 127);
+                        }
+                        claimed.add(x - minX, y - minY, z - minZ);
+                        addBlock(x, y, z, position, face, color);
+                    }
+                }
+            }
+        }
+        return Math.max(lastY - minY + 1, 0);
+    }
+    
+    /**
+     * Get a face from the grid's list, or from the list the hierarchy found.
+     */
+    private int getFace(IntList candidates, int i){
+        return grid != null ? grid.cellFaces[i] : candidates.get(i);
     }
     
     @Override
     public void run(){
         int nDone = 0;
-        System.out.println("Enter new thread. Queued layers: " + nLayers + " from y=" + minY + ". Triangles: " + t.length);
+        //small faces are colored once, and those too transparent to show are
+        //dropped, as they would be by the exact test
+        Color[] splatColors = new Color[smallFaces.length];
+        for(int i = 0; i < smallFaces.length; i++){
+            splatColors[i] = getSplatColor(smallFaces[i]);
+        }
+        if(grid == null && bvh == null){
+            int layers = rasterize(splatColors);
+            synchronized(progressWindow){
+                progressWindow.layersProgressBar.setValue(progressWindow.layersProgressBar.getValue() + layers);
+            }
+            done = true;
+            return;
+        }
+        int[] splat = new int[sizeX * sizeZ];
+        IntList candidates = new IntList();
+        //the faces the hierarchy finds already pass the bounding box check,
+        //so they gain nothing from batching
+        int batch = kernel != null ? kernel.getBatchSize() : 1;
+        //a little past the reach of the overlap test, so rounding keeps every
+        //face it would pass
+        float reach = Main.TEST_BOX_SCALE * cubeSize * 1.01f;
+        
         for(int y = minY; y <= cubesY; y++){
             synchronized(progressWindow){
                 //System.out.println("Generating layer " + completeLayers.size() + " / " + cubesY);
@@ -230,32 +674,90 @@ class LayererThread implements Runnable{
                 progressWindow.layersProgressBar.setValue(layers + 1);
             }
             
-            for(int x = 0; x < cubesX; x++){
-                for(int z = 0; z < cubesZ; z++){
+            //splat the small faces of this layer; the first face to reach a
+            //block is the one it keeps
+            Arrays.fill(splat, -1);
+            float py = y * cubeSize + min.y + 0.5f * cubeSize;
+            for(int j = layerStart[y - minY]; j < layerStart[y - minY + 1]; j++){
+                int i = layerFaces[j];
+                //faces too transparent to show are only recorded
+                boolean hidden = splatColors[i].getAlpha() < 85;
+                if(hidden && occupancy == null) continue;
+                for(int x = splatBounds[i * 6]; x <= splatBounds[i * 6 + 3]; x++){
+                    float px = x * cubeSize + min.x + 0.5f * cubeSize;
+                    for(int z = splatBounds[i * 6 + 2]; z <= splatBounds[i * 6 + 5]; z++){
+                        if(!hidden && splat[(x - minX) * sizeZ + z - minZ] >= 0) continue;
+                        float pz = z * cubeSize + min.z + 0.5f * cubeSize;
+                        if(tricube_overlap(mesh, smallFaces[i], px, py, pz, cubeSize * Main.TEST_BOX_SCALE)){
+                            if(hidden) occupancy.add(x, y + 1, z);
+                            else splat[(x - minX) * sizeZ + z - minZ] = i;
+                        }
+                    }
+                }
+            }
+            
+            int brick = VoxelGrid.BRICK_BLOCKS;
+            int by = (y - minY) / brick;
+            for(int x = minX; x < minX + sizeX; x++){
+                int bx = (x - minX) / brick;
+                for(int z = minZ; z < minZ + sizeZ; z++){
+                    //no face reaches this brick, so skip its row of blocks
+                    if(!occupied.get(getBrick(bx, by, (z - minZ) / brick))){
+                        z += brick - 1 - (z - minZ) % brick;
+                        continue;
+                    }
                     Vec3 position = new Vec3(x * cubeSize + min.x + 0.5f * cubeSize, y * cubeSize + min.y + 0.5f * cubeSize, z * cubeSize + min.z + 0.5f * cubeSize);
-                    Triangle theTriangle = null;
+                    int splatted = splat[(x - minX) * sizeZ + z - minZ];
+                    int splatFace = splatted < 0 ? Integer.MAX_VALUE : smallFaces[splatted];
+                    int theFace = -1;
+                    boolean touched = splatted >= 0;
                     Color sampleColor = new Color(127, 127, 127);
-                    for (Triangle t1 : t) {
-                        if (tricube_overlap(t1, position, cubeSize * 1.2f)) {
-                            if(t1.texture != null){
-                                String texture = t1.texture;
-                                /*Vec3 barycentric = t1.getBarycentric(t1.perpendicular(position));
-                                Coord texCoord = t1.getTexCoord(barycentric);
-                                Color cl = textures.get(texture).sample(texCoord.x, texCoord.y);*/
-                                Color cl = Main.sampleColor(t1, textures, position, new Vec3(cubeSize, cubeSize, cubeSize));
+                    int first, last;
+                    if(grid != null){
+                        int cell = grid.getCell(x, y, z);
+                        first = grid.cellStart[cell];
+                        last = grid.cellStart[cell + 1];
+                    } else {
+                        bvh.queryBox(position.x - reach, position.y - reach, position.z - reach,
+                                position.x + reach, position.y + reach, position.z + reach, candidates);
+                        first = 0;
+                        last = candidates.size();
+                    }
+                    //test a batch of faces at a time, then take the hits in
+                    //face order
+                    search:
+                    for (int j = first; j < last; j += batch) {
+                        //a splatted face that comes first wins
+                        if (getFace(candidates, j) > splatFace) break;
+                        long hits = kernel != null
+                                ? kernel.test(j, Math.min(batch, last - j), position.x, position.y, position.z, cubeSize * Main.TEST_BOX_SCALE)
+                                : tricube_overlap(mesh, candidates.get(j), position.x, position.y, position.z, cubeSize * Main.TEST_BOX_SCALE) ? 1 : 0;
+                        if(hits != 0) touched = true;
+                        for (; hits != 0; hits &= hits - 1) {
+                            int face = getFace(candidates, j + Long.numberOfTrailingZeros(hits));
+                            if (face > splatFace) break search;
+                            if(mesh.materials[face] >= 0){
+                                //only sample the color once the face may show
+                                Vec3 sampleSize = new Vec3(cubeSize, cubeSize, cubeSize);
+                                if(!Main.mayShow(mesh, face, textures, position, sampleSize)) continue;
+                                Color cl = Main.sampleColor(mesh, face, textures, position, sampleSize);
                                 if(cl.getAlpha() < 85) continue;
                                 sampleColor = cl;
                             } else {
                                 sampleColor = new Color(127, 127, 127);
                             }
-                            theTriangle = t1;
-                            break;
+                            theFace = face;
+                            break search;
                         }
                     }
-                    if(theTriangle != null){
-                        
-                        world.addBlock(x, y + 1, z, materialSet, theTriangle.texture, sampleColor);
+                    if(theFace == -1 && splatted >= 0){
+                        theFace = splatFace;
+                        sampleColor = splatColors[splatted];
+                    }
+                    if(theFace != -1){
+                        addBlock(x, y, z, position, theFace, sampleColor);
                     }
+                    if(touched && occupancy != null) occupancy.add(x, y + 1, z);
                 }
             
                 
@@ -265,7 +767,6 @@ class LayererThread implements Runnable{
             if(nDone == nLayers) break;
         }
         done = true;
-        System.out.println("Thread finish");
     }
     
     
@@ -141,6 +141,29 @@ public class Material {
         }
     }
     
+    /**
+     * Get the color of a block of this material.
+     * 
+     * @param block the block name
+     * @return      the block's color, or null if it isn't in this material
+     */
+    public Color getColor(String block){
+        int i = opaqueBlockNames.indexOf(block);
+        if(i != -1) return opaqueColors.get(i);
+        i = translucentBlockNames.indexOf(block);
+        return i == -1 ? null : translucentColors.get(i);
+    }
+    
+    /**
+     * Check whether a block is one of this material's translucent blocks.
+     * 
+     * @param block the block name
+     * @return      true if the block can be seen through
+     */
+    public boolean isTranslucent(String block){
+        return translucentBlockNames.contains(block);
+    }
+    
     static int distanceSquared(Color c1, Color c2){
         int c1r = c1.getRed() - c2.getRed();
         int c1g = c1.getGreen() - c2.getGreen();
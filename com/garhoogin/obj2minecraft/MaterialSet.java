@@ -96,6 +96,36 @@ public class MaterialSet {
     }
     
     
+    /**
+     * Get the color of a block, from whichever material defines it.
+     * 
+     * @param block the block name
+     * @return      the block's color, or null if no material defines it
+     */
+    public Color getBlockColor(String block){
+        for(Material material : materials.values()){
+            Color c = material.getColor(block);
+            if(c != null) return c;
+        }
+        return Material.getDefaultMaterial().getColor(block);
+    }
+    
+    
+    /**
+     * Check whether a block can be seen through, in whichever material
+     * defines it.
+     * 
+     * @param block the block name
+     * @return      true if a material lists the block as translucent
+     */
+    public boolean isTranslucentBlock(String block){
+        for(Material material : materials.values()){
+            if(material.isTranslucent(block)) return true;
+        }
+        return Material.getDefaultMaterial().isTranslucent(block);
+    }
+    
+    
     /**
      * Uses a material name to match a color to that material's closest block.
      * 
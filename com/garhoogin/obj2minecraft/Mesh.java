@@ -0,0 +1,323 @@
+package com.garhoogin.obj2minecraft;
+
+import java.util.Arrays;
+
+/**
+ * The {@code Mesh} class holds a triangle mesh as a set of primitive arrays
+ * rather than as one object per triangle. Vertex positions and texture
+ * coordinates are shared between faces through index buffers, and the data
+ * the voxelizer needs for each face (its plane, bounding box and texture
+ * mapping) is computed once up front and kept in parallel arrays.
+ *
+ * @author Declan Moore
+ */
+public class Mesh {
+
+    /**
+     * vertex positions, three floats (x, y, z) per vertex
+     */
+    public final float[] positions;
+
+    /**
+     * texture coordinates, two floats (u, v) per coordinate
+     */
+    public final float[] texCoords;
+
+    /**
+     * position indices, three per face
+     */
+    public final int[] indices;
+
+    /**
+     * texture coordinate indices, three per face. Faces without texture
+     * coordinates have indices of -1.
+     */
+    public final int[] texIndices;
+
+    /**
+     * the material ID of each face, an index into {@code materialNames}, or -1
+     * if the face is not textured
+     */
+    public final short[] materials;
+
+    /**
+     * material names, indexed by material ID
+     */
+    public final String[] materialNames;
+
+    /**
+     * the plane of each face, four floats per face: the unit normal (x, y, z)
+     * and the distance of the plane from the origin along the normal
+     */
+    final float[] planes;
+
+    /**
+     * the bounding box of each face, six floats per face: minimum x, y, z and
+     * maximum x, y, z
+     */
+    final float[] bounds;
+
+    /**
+     * the texture mapping of each face, eight floats per face: the gradient
+     * (x, y, z) of u and its value at the face's first vertex, then those of
+     * v. Texture coordinates are an affine function of position over a
+     * face, and a point off the face maps as its projection onto the plane
+     * does. They are found from the offset of a point from the first vertex
+     * rather than from its absolute position, which would lose precision on
+     * models far from the origin.
+     */
+    final float[] uvMaps;
+
+    private final int faceCount;
+
+
+    /**
+     * Create a new instance of {@code Mesh}. Per-face planes and bounding
+     * boxes are computed from the input data.
+     *
+     * @param positions     vertex positions, three floats per vertex
+     * @param texCoords     texture coordinates, two floats per coordinate
+     * @param indices       position indices, three per face
+     * @param texIndices    texture coordinate indices, three per face, or -1
+     * @param materials     the material ID of each face, or -1
+     * @param materialNames the material names, indexed by material ID
+     */
+    public Mesh(float[] positions, float[] texCoords, int[] indices, int[] texIndices, short[] materials, String[] materialNames){
+        this.positions = positions;
+        this.texCoords = texCoords;
+        this.indices = indices;
+        this.texIndices = texIndices;
+        this.materials = materials;
+        this.materialNames = materialNames;
+        this.faceCount = materials.length;
+        this.planes = new float[faceCount * 4];
+        this.bounds = new float[faceCount * 6];
+        this.uvMaps = new float[faceCount * 8];
+        for(int i = 0; i < faceCount; i++){
+            computeFace(i);
+            computeUvMap(i);
+        }
+    }
+
+
+    /**
+     * Create a new instance of {@code Mesh} with per-face planes and bounding
+     * boxes that have already been computed.
+     */
+    Mesh(float[] positions, float[] texCoords, int[] indices, int[] texIndices, short[] materials, String[] materialNames, float[] planes, float[] bounds){
+        this.positions = positions;
+        this.texCoords = texCoords;
+        this.indices = indices;
+        this.texIndices = texIndices;
+        this.materials = materials;
+        this.materialNames = materialNames;
+        this.faceCount = materials.length;
+        this.planes = planes;
+        this.bounds = bounds;
+        this.uvMaps = new float[faceCount * 8];
+        for(int i = 0; i < faceCount; i++){
+            computeUvMap(i);
+        }
+    }
+
+    private void computeFace(int face){
+        int a = indices[face * 3] * 3, b = indices[face * 3 + 1] * 3, c = indices[face * 3 + 2] * 3;
+        float ax = positions[a], ay = positions[a + 1], az = positions[a + 2];
+        float bx = positions[b], by = positions[b + 1], bz = positions[b + 2];
+        float cx = positions[c], cy = positions[c + 1], cz = positions[c + 2];
+
+        //normal = (b - a) x (c - a), normalized
+        float bax = bx - ax, bay = by - ay, baz = bz - az;
+        float cax = cx - ax, cay = cy - ay, caz = cz - az;
+        float nx = bay * caz - baz * cay;
+        float ny = baz * cax - bax * caz;
+        float nz = bax * cay - bay * cax;
+        float len = (float) Math.sqrt(nx * nx + ny * ny + nz * nz);
+        nx /= len;
+        ny /= len;
+        nz /= len;
+        planes[face * 4] = nx;
+        planes[face * 4 + 1] = ny;
+        planes[face * 4 + 2] = nz;
+        planes[face * 4 + 3] = nx * ax + ny * ay + nz * az;
+
+        bounds[face * 6] = Math.min(Math.min(ax, bx), cx);
+        bounds[face * 6 + 1] = Math.min(Math.min(ay, by), cy);
+        bounds[face * 6 + 2] = Math.min(Math.min(az, bz), cz);
+        bounds[face * 6 + 3] = Math.max(Math.max(ax, bx), cx);
+        bounds[face * 6 + 4] = Math.max(Math.max(ay, by), cy);
+        bounds[face * 6 + 5] = Math.max(Math.max(az, bz), cz);
+    }
+
+    private void computeUvMap(int face){
+        int t1 = texIndices[face * 3], t2 = texIndices[face * 3 + 1], t3 = texIndices[face * 3 + 2];
+        //faces without texture coordinates map everywhere to (0, 0)
+        if(t1 < 0 || t2 < 0 || t3 < 0) return;
+        int a = indices[face * 3] * 3, b = indices[face * 3 + 1] * 3, c = indices[face * 3 + 2] * 3;
+        double ax = positions[a], ay = positions[a + 1], az = positions[a + 2];
+        double bax = positions[b] - ax, bay = positions[b + 1] - ay, baz = positions[b + 2] - az;
+        double cax = positions[c] - ax, cay = positions[c + 1] - ay, caz = positions[c + 2] - az;
+        double nx = bay * caz - baz * cay;
+        double ny = baz * cax - bax * caz;
+        double nz = bax * cay - bay * cax;
+        double invArea2 = 1.0 / (nx * nx + ny * ny + nz * nz);
+
+        //the barycentric weights of B and C have gradients (C - A) x N and
+        //N x (B - A) over |N|^2. Both lie in the plane, so moving a point
+        //along the normal leaves them, and the texture coordinate, unchanged
+        double gbx = (cay * nz - caz * ny) * invArea2, gby = (caz * nx - cax * nz) * invArea2, gbz = (cax * ny - cay * nx) * invArea2;
+        double gcx = (ny * baz - nz * bay) * invArea2, gcy = (nz * bax - nx * baz) * invArea2, gcz = (nx * bay - ny * bax) * invArea2;
+        for(int i = 0; i < 2; i++){
+            double ta = texCoords[t1 * 2 + i];
+            double tb = texCoords[t2 * 2 + i] - ta, tc = texCoords[t3 * 2 + i] - ta;
+            double gx = tb * gbx + tc * gcx, gy = tb * gby + tc * gcy, gz = tb * gbz + tc * gcz;
+            int m = face * 8 + i * 4;
+            uvMaps[m] = (float) gx;
+            uvMaps[m + 1] = (float) gy;
+            uvMaps[m + 2] = (float) gz;
+            uvMaps[m + 3] = (float) ta;
+        }
+    }
+
+
+    /**
+     * Get the number of faces in this mesh.
+     *
+     * @return the number of faces
+     */
+    public int getFaceCount(){
+        return faceCount;
+    }
+
+
+    /**
+     * Get a copy of this mesh where no face has a material. The copy shares
+     * all other data with this mesh.
+     *
+     * @return a mesh without materials
+     */
+    public Mesh withoutMaterials(){
+        short[] none = new short[faceCount];
+        Arrays.fill(none, (short) -1);
+        return new Mesh(positions, texCoords, indices, texIndices, none, materialNames, planes, bounds);
+    }
+
+
+    /**
+     * Get the name of the material of a face.
+     *
+     * @param face the face index
+     * @return     the material name, or {@code null} if the face is not
+     *             textured
+     */
+    public String getMaterial(int face){
+        int material = materials[face];
+        return material < 0 ? null : materialNames[material];
+    }
+
+
+    /**
+     * Get the lower coordinate of the bounding box of this mesh.
+     *
+     * @return the lower coordinate of a box that contains every face
+     */
+    public Vec3 getMinimum(){
+        if(faceCount == 0) return new Vec3(0, 0, 0);
+        float x = Float.POSITIVE_INFINITY, y = Float.POSITIVE_INFINITY, z = Float.POSITIVE_INFINITY;
+        for(int i = 0; i < faceCount; i++){
+            x = Math.min(x, bounds[i * 6]);
+            y = Math.min(y, bounds[i * 6 + 1]);
+            z = Math.min(z, bounds[i * 6 + 2]);
+        }
+        return new Vec3(x, y, z);
+    }
+
+
+    /**
+     * Get the upper coordinate of the bounding box of this mesh.
+     *
+     * @return the greater coordinate of a box that contains every face
+     */
+    public Vec3 getMaximum(){
+        if(faceCount == 0) return new Vec3(0, 0, 0);
+        float x = Float.NEGATIVE_INFINITY, y = Float.NEGATIVE_INFINITY, z = Float.NEGATIVE_INFINITY;
+        for(int i = 0; i < faceCount; i++){
+            x = Math.max(x, bounds[i * 6 + 3]);
+            y = Math.max(y, bounds[i * 6 + 4]);
+            z = Math.max(z, bounds[i * 6 + 5]);
+        }
+        return new Vec3(x, y, z);
+    }
+
+
+    /**
+     * Get the texture coordinate of the point on a face closest to a given
+     * point. The point is projected onto the plane of the face and converted
+     * to barycentric coordinates, which interpolate the face's texture
+     * coordinates. The point does not need to lie inside the face.
+     *
+     * @param face the face index
+     * @param px   the x coordinate of the point
+     * @param py   the y coordinate of the point
+     * @param pz   the z coordinate of the point
+     * @return     the interpolated texture coordinate
+     */
+    public Coord getTexCoord(int face, float px, float py, float pz){
+        return new Coord(getU(face, px, py, pz), getV(face, px, py, pz));
+    }
+
+
+    /**
+     * Get the u texture coordinate of the point on a face closest to a given
+     * point, as {@link #getTexCoord} does but without creating an object.
+     *
+     * @param face the face index
+     * @param px   the x coordinate of the point
+     * @param py   the y coordinate of the point
+     * @param pz   the z coordinate of the point
+     * @return     the u texture coordinate
+     */
+    public float getU(int face, float px, float py, float pz){
+        int m = face * 8, a = indices[face * 3] * 3;
+        return uvMaps[m] * (px - positions[a]) + uvMaps[m + 1] * (py - positions[a + 1])
+                + uvMaps[m + 2] * (pz - positions[a + 2]) + uvMaps[m + 3];
+    }
+
+
+    /**
+     * Get the v texture coordinate of the point on a face closest to a given
+     * point, as {@link #getTexCoord} does but without creating an object.
+     *
+     * @param face the face index
+     * @param px   the x coordinate of the point
+     * @param py   the y coordinate of the point
+     * @param pz   the z coordinate of the point
+     * @return     the v texture coordinate
+     */
+    public float getV(int face, float px, float py, float pz){
+        int m = face * 8 + 4, a = indices[face * 3] * 3;
+        return uvMaps[m] * (px - positions[a]) + uvMaps[m + 1] * (py - positions[a + 1])
+                + uvMaps[m + 2] * (pz - positions[a + 2]) + uvMaps[m + 3];
+    }
+
+
+    /**
+     * Create a {@code Triangle} object for a face of this mesh.
+     *
+     * @param face the face index
+     * @return     a new triangle with the face's vertices, texture coordinates
+     *             and material
+     */
+    public Triangle getTriangle(int face){
+        Vec3[] v = new Vec3[3];
+        Coord[] tc = new Coord[3];
+        for(int i = 0; i < 3; i++){
+            int p = indices[face * 3 + i] * 3;
+            int t = texIndices[face * 3 + i];
+            v[i] = new Vec3(positions[p], positions[p + 1], positions[p + 2]);
+            tc[i] = t < 0 ? new Coord(0, 0) : new Coord(texCoords[t * 2], texCoords[t * 2 + 1]);
+        }
+        return new Triangle(v[0], tc[0], v[1], tc[1], v[2], tc[2], getMaterial(face));
+    }
+
+}
@@ -0,0 +1,314 @@
+package com.garhoogin.obj2minecraft;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * The {@code MeshCache} class stores a parsed mesh in a binary file, so that
+ * converting the same model again doesn't need to parse it again. The cache
+ * file is written next to the model, or in the directory given by the
+ * {@code obj2mc.cacheDir} system property, and is only used while the
+ * model's path, size, modification time and content hash all match. Caching
+ * can be turned off by setting the {@code obj2mc.cache} property to false.
+ * <p>
+ * The file holds a header followed by each of the mesh's arrays, in
+ * little-endian order and aligned to 8 bytes, so every array is read straight
+ * out of a memory mapping with a single bulk copy.
+ *
+ * @author Declan Moore
+ */
+public class MeshCache {
+
+    /**
+     * the system property naming a directory to keep cache files in
+     */
+    public static final String CACHE_DIR_PROPERTY = "obj2mc.cacheDir";
+
+    /**
+     * the system property that turns caching on or off
+     */
+    public static final String CACHE_PROPERTY = "obj2mc.cache";
+
+    private static final int MAGIC = 0x434D324F; //'O2MC'
+    private static final int VERSION = 2;
+    private static final int HEADER_SIZE = 64;
+
+    private final File cacheFile;
+    private final String path;
+    private final long size;
+    private final long modified;
+    private final long hash;
+
+
+    /**
+     * Create a new instance of {@code MeshCache} for a model file. This hashes
+     * the contents of the model.
+     *
+     * @param model        the model file
+     * @throws IOException if the model could not be read
+     */
+    public MeshCache(File model) throws IOException{
+        model = model.getAbsoluteFile();
+        this.path = model.getPath();
+        this.size = model.length();
+        this.modified = model.lastModified();
+        this.hash = hashFile(model);
+        this.cacheFile = getCacheFile(model);
+    }
+
+
+    /**
+     * Check whether mesh caching is enabled.
+     *
+     * @return false if the {@code obj2mc.cache} property is set to false
+     */
+    public static boolean isEnabled(){
+        return !"false".equalsIgnoreCase(System.getProperty(CACHE_PROPERTY));
+    }
+
+    private static File getCacheFile(File model){
+        String dir = System.getProperty(CACHE_DIR_PROPERTY);
+        if(dir == null || dir.isEmpty()){
+            return new File(model.getPath() + ".o2mc");
+        }
+        //models of the same name in different directories must not collide
+        CRC32 crc = new CRC32();
+        crc.update(model.getPath().getBytes(StandardCharsets.UTF_8));
+        return new File(dir, String.format("%08x-%s.o2mc", crc.getValue(), model.getName()));
+    }
+
+    private static long hashFile(File f) throws IOException{
+        CRC32 crc = new CRC32();
+        try(FileChannel channel = FileChannel.open(f.toPath(), StandardOpenOption.READ)){
+            long size = channel.size();
+            long offset = 0;
+            while(offset < size){
+                long length = Math.min(size - offset, ObjReader.MAP_WINDOW_SIZE);
+                crc.update(channel.map(FileChannel.MapMode.READ_ONLY, offset, length));
+                offset += length;
+            }
+        }
+        return crc.getValue();
+    }
+
+
+    /**
+     * Load the cached mesh, if there is an up to date one.
+     *
+     * @param mtlLibs the list to add the names of the model's material
+     *                libraries to
+     * @return        the cached mesh, or {@code null} if there is none or it
+     *                is out of date
+     */
+    @SuppressWarnings({"CallToPrintStackTrace"})
+    public Mesh load(List<String> mtlLibs){
+        if(!cacheFile.isFile()) return null;
+        try(FileChannel channel = FileChannel.open(cacheFile.toPath(), StandardOpenOption.READ)){
+            if(channel.size() < HEADER_SIZE) return null;
+            ByteBuffer header = map(channel, 0, HEADER_SIZE);
+            if(header.getInt(0) != MAGIC || header.getInt(4) != VERSION) return null;
+            if(header.getLong(8) != size || header.getLong(16) != modified || header.getLong(24) != hash) return null;
+            int nPositions = header.getInt(32);
+            int nTexCoords = header.getInt(36);
+            int nFaces = header.getInt(40);
+            int nMaterials = header.getInt(44);
+            int nMtlLibs = header.getInt(48);
+            int stringsLength = header.getInt(52);
+
+            long offset = HEADER_SIZE;
+            ByteBuffer strings = map(channel, offset, stringsLength);
+            if(!path.equals(readString(strings))) return null;
+            String[] materialNames = new String[nMaterials];
+            for(int i = 0; i < nMaterials; i++){
+                materialNames[i] = readString(strings);
+            }
+            List<String> libs = new ArrayList<>();
+            for(int i = 0; i < nMtlLibs; i++){
+                libs.add(readString(strings));
+            }
+            offset = align(offset + stringsLength);
+
+            float[] positions = new float[nPositions * 3];
+            float[] texCoords = new float[nTexCoords * 2];
+            int[] indices = new int[nFaces * 3];
+            int[] texIndices = new int[nFaces * 3];
+            float[] planes = new float[nFaces * 4];
+            float[] bounds = new float[nFaces * 6];
+            short[] materials = new short[nFaces];
+            map(channel, offset, positions.length * 4L).asFloatBuffer().get(positions);
+            offset = align(offset + positions.length * 4L);
+            map(channel, offset, texCoords.length * 4L).asFloatBuffer().get(texCoords);
+            offset = align(offset + texCoords.length * 4L);
+            map(channel, offset, indices.length * 4L).asIntBuffer().get(indices);
+            offset = align(offset + indices.length * 4L);
+            map(channel, offset, texIndices.length * 4L).asIntBuffer().get(texIndices);
+            offset = align(offset + texIndices.length * 4L);
+            map(channel, offset, planes.length * 4L).asFloatBuffer().get(planes);
+            offset = align(offset + planes.length * 4L);
+            map(channel, offset, bounds.length * 4L).asFloatBuffer().get(bounds);
+            offset = align(offset + bounds.length * 4L);
+            map(channel, offset, materials.length * 2L).asShortBuffer().get(materials);
+
+            mtlLibs.addAll(libs);
+            return new Mesh(positions, texCoords, indices, texIndices, materials, materialNames, planes, bounds);
+        } catch(IOException | RuntimeException ex){
+            //a broken cache file is no reason to fail, just parse the model
+            System.err.println("Could not read mesh cache " + cacheFile);
+            ex.printStackTrace();
+            return null;
+        }
+    }
+
+
+    /**
+     * Write a mesh to the cache. The file is written under a temporary name
+     * first and then moved into place, so a reader never sees half a file.
+     * Failing to write the cache is not an error.
+     *
+     * @param mesh    the mesh to store
+     * @param mtlLibs the names of the model's material libraries
+     */
+    @SuppressWarnings({"CallToPrintStackTrace"})
+    public void store(Mesh mesh, List<String> mtlLibs){
+        File dir = cacheFile.getAbsoluteFile().getParentFile();
+        File temp = new File(dir, cacheFile.getName() + ".tmp");
+        try{
+            if(!dir.isDirectory()) dir.mkdirs();
+            try(FileChannel channel = FileChannel.open(temp.toPath(), StandardOpenOption.WRITE,
+                    StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)){
+                ByteBuffer strings = ByteBuffer.allocate(stringsLength(mesh, mtlLibs)).order(ByteOrder.LITTLE_ENDIAN);
+                writeString(strings, path);
+                for(String name : mesh.materialNames) writeString(strings, name);
+                for(String lib : mtlLibs) writeString(strings, lib);
+                strings.flip();
+
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+                header.putInt(MAGIC).putInt(VERSION);
+                header.putLong(size).putLong(modified).putLong(hash);
+                header.putInt(mesh.positions.length / 3).putInt(mesh.texCoords.length / 2);
+                header.putInt(mesh.getFaceCount()).putInt(mesh.materialNames.length);
+                header.putInt(mtlLibs.size()).putInt(strings.remaining());
+                header.clear();
+                writeFully(channel, header);
+                writeFully(channel, strings);
+                pad(channel);
+
+                Writer writer = new Writer(channel);
+                writer.write(mesh.positions);
+                writer.write(mesh.texCoords);
+                writer.write(mesh.indices);
+                writer.write(mesh.texIndices);
+                writer.write(mesh.planes);
+                writer.write(mesh.bounds);
+                writer.write(mesh.materials);
+            }
+            Files.move(temp.toPath(), cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch(IOException ex){
+            System.err.println("Could not write mesh cache " + cacheFile);
+            ex.printStackTrace();
+            temp.delete();
+        }
+    }
+
+    private static ByteBuffer map(FileChannel channel, long offset, long length) throws IOException{
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        return buffer;
+    }
+
+    private static long align(long offset){
+        return (offset + 7) & ~7L;
+    }
+
+    private int stringsLength(Mesh mesh, List<String> mtlLibs){
+        int length = 4 + path.getBytes(StandardCharsets.UTF_8).length;
+        for(String name : mesh.materialNames) length += 4 + name.getBytes(StandardCharsets.UTF_8).length;
+        for(String lib : mtlLibs) length += 4 + lib.getBytes(StandardCharsets.UTF_8).length;
+        return length;
+    }
+
+    private static String readString(ByteBuffer buffer){
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeString(ByteBuffer buffer, String s){
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        buffer.putInt(bytes.length);
+        buffer.put(bytes);
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException{
+        while(buffer.hasRemaining()) channel.write(buffer);
+    }
+
+    private static void pad(FileChannel channel) throws IOException{
+        long position = channel.position();
+        writeFully(channel, ByteBuffer.allocate((int) (align(position) - position)));
+    }
+
+
+    /**
+     * Writes primitive arrays to a file in little-endian order, through a
+     * fixed-size buffer.
+     */
+    private static class Writer{
+
+        private final FileChannel channel;
+        private final ByteBuffer buffer;
+
+        Writer(FileChannel channel){
+            this.channel = channel;
+            this.buffer = ByteBuffer.allocateDirect(1 << 20).order(ByteOrder.LITTLE_ENDIAN);
+        }
+
+        void write(float[] array) throws IOException{
+            for(int i = 0; i < array.length; i += buffer.capacity() / 4){
+                int n = Math.min(array.length - i, buffer.capacity() / 4);
+                buffer.clear();
+                buffer.asFloatBuffer().put(array, i, n);
+                flush(n * 4);
+            }
+            pad(channel);
+        }
+
+        void write(int[] array) throws IOException{
+            for(int i = 0; i < array.length; i += buffer.capacity() / 4){
+                int n = Math.min(array.length - i, buffer.capacity() / 4);
+                buffer.clear();
+                buffer.asIntBuffer().put(array, i, n);
+                flush(n * 4);
+            }
+            pad(channel);
+        }
+
+        void write(short[] array) throws IOException{
+            for(int i = 0; i < array.length; i += buffer.capacity() / 2){
+                int n = Math.min(array.length - i, buffer.capacity() / 2);
+                buffer.clear();
+                buffer.asShortBuffer().put(array, i, n);
+                flush(n * 2);
+            }
+            pad(channel);
+        }
+
+        private void flush(int length) throws IOException{
+            buffer.position(0).limit(length);
+            writeFully(channel, buffer);
+        }
+
+    }
+
+}
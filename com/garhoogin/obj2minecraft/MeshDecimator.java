@@ -0,0 +1,356 @@
+package com.garhoogin.obj2minecraft;
+
+import java.util.Arrays;
+
+/**
+ * The {@code MeshDecimator} class simplifies a mesh to about the resolution
+ * it will be voxelized at, by vertex clustering. Space is divided into a grid
+ * of cells, and every vertex in a cell is moved to the mean position of the
+ * vertices in that cell. Faces that then have two corners in the same cell
+ * have collapsed and are removed, and faces that now join the same three
+ * cells with the same material are merged into one. The surviving faces keep
+ * the texture coordinates and material of the first face they stand for.
+ * <p>
+ * This is turned on by setting the {@code obj2mc.decimate} system property to
+ * the cell size as a fraction of a block, for example 0.5. Features smaller
+ * than a cell may be lost, so the cell should be no larger than a block.
+ *
+ * @author Declan Moore
+ */
+public class MeshDecimator {
+
+    /**
+     * the system property giving the cell size, in blocks
+     */
+    public static final String DECIMATE_PROPERTY = "obj2mc.decimate";
+
+    //cell coordinates are packed 21 bits each into a long
+    private static final int CELL_BITS = 21;
+    private static final long CELL_MASK = (1L << CELL_BITS) - 1;
+
+
+    /**
+     * Get the cell size set by the {@code obj2mc.decimate} property.
+     *
+     * @return the cell size in blocks, or 0 if decimation is off
+     */
+    public static float getCellFraction(){
+        String value = System.getProperty(DECIMATE_PROPERTY);
+        if(value == null || value.isEmpty()) return 0.0f;
+        try{
+            float fraction = Float.parseFloat(value);
+            return fraction > 0.0f ? fraction : 0.0f;
+        } catch(NumberFormatException ex){
+            System.err.println("Ignoring bad " + DECIMATE_PROPERTY + " value: " + value);
+            return 0.0f;
+        }
+    }
+
+
+    /**
+     * Simplify a mesh by clustering its vertices on a grid.
+     *
+     * @param mesh     the mesh to simplify
+     * @param origin   the corner of the grid
+     * @param cellSize the size of a grid cell in model space
+     * @return         the simplified mesh
+     */
+    public static Mesh decimate(Mesh mesh, Vec3 origin, float cellSize){
+        float[] positions = mesh.positions;
+        Clusters clusters = new Clusters(origin, cellSize);
+        for(int i = 0; i < positions.length; i += 3){
+            clusters.add(positions[i], positions[i + 1], positions[i + 2]);
+        }
+        clusters.finish();
+        return decimate(mesh, clusters);
+    }
+
+
+    /**
+     * Simplify a mesh by moving its vertices to the means of clusters that
+     * were found beforehand. Parts of one model decimated separately against
+     * the same clusters line up exactly, and match the model decimated
+     * whole, as long as every vertex of each part was added to the clusters.
+     * The returned mesh shares the clusters' array of positions.
+     *
+     * @param mesh     the mesh to simplify
+     * @param clusters the finished clusters of the model's vertices
+     * @return         the simplified mesh
+     */
+    static Mesh decimate(Mesh mesh, Clusters clusters){
+        float[] positions = mesh.positions;
+        int nVertices = positions.length / 3;
+        int[] cluster = new int[nVertices];
+        for(int i = 0; i < nVertices; i++){
+            cluster[i] = clusters.find(positions[i * 3], positions[i * 3 + 1], positions[i * 3 + 2]);
+        }
+        float[] clustered = clusters.getMeans();
+
+        //keep the first face joining each set of three clusters
+        int nFaces = mesh.getFaceCount();
+        IntList kept = new IntList();
+        FaceSet seen = new FaceSet(Math.max(16, nFaces / 4));
+        int[] faceClusters = new int[nFaces * 3];
+        for(int i = 0; i < nFaces; i++){
+            int a = cluster[mesh.indices[i * 3]];
+            int b = cluster[mesh.indices[i * 3 + 1]];
+            int c = cluster[mesh.indices[i * 3 + 2]];
+            if(a == b || b == c || a == c) continue;
+            if(isCollinear(clustered, a, b, c)) continue;
+            faceClusters[i * 3] = a;
+            faceClusters[i * 3 + 1] = b;
+            faceClusters[i * 3 + 2] = c;
+            if(seen.add(i, faceClusters, mesh.materials)) kept.add(i);
+        }
+
+        int nKept = kept.size();
+        int[] indices = new int[nKept * 3];
+        int[] texIndices = new int[nKept * 3];
+        short[] materials = new short[nKept];
+        for(int i = 0; i < nKept; i++){
+            int face = kept.get(i);
+            for(int j = 0; j < 3; j++){
+                indices[i * 3 + j] = faceClusters[face * 3 + j];
+                texIndices[i * 3 + j] = mesh.texIndices[face * 3 + j];
+            }
+            materials[i] = mesh.materials[face];
+        }
+        return new Mesh(clustered, mesh.texCoords, indices, texIndices, materials, mesh.materialNames);
+    }
+
+    private static boolean isCollinear(float[] p, int a, int b, int c){
+        float bax = p[b * 3] - p[a * 3], bay = p[b * 3 + 1] - p[a * 3 + 1], baz = p[b * 3 + 2] - p[a * 3 + 2];
+        float cax = p[c * 3] - p[a * 3], cay = p[c * 3 + 1] - p[a * 3 + 1], caz = p[c * 3 + 2] - p[a * 3 + 2];
+        float nx = bay * caz - baz * cay;
+        float ny = baz * cax - bax * caz;
+        float nz = bax * cay - bay * cax;
+        return nx == 0.0f && ny == 0.0f && nz == 0.0f;
+    }
+
+
+    /**
+     * The clusters of a model's vertices: the grid cells that hold any, and
+     * the mean position of the vertices in each. Positions are summed in
+     * double precision and divided once, so a cell of many vertices far from
+     * the origin doesn't drift. Vertices are added, then the clusters are
+     * finished, after which they can be shared between threads.
+     */
+    static final class Clusters{
+
+        private final Vec3 origin;
+        private final float scale;
+        private final LongIntMap cells = new LongIntMap(1 << 12);
+        private double[] sums = new double[3 << 12];
+        private int[] counts = new int[1 << 12];
+        private int size;
+        private float[] means;
+
+        /**
+         * Create a new, empty set of clusters.
+         *
+         * @param origin   the corner of the grid
+         * @param cellSize the size of a grid cell in model space
+         */
+        Clusters(Vec3 origin, float cellSize){
+            this.origin = origin;
+            this.scale = 1.0f / cellSize;
+        }
+
+        /**
+         * Add a vertex to the cluster of its cell.
+         */
+        void add(float x, float y, float z){
+            if(means != null) throw new IllegalStateException("Clusters are finished");
+            int id = cells.putIfAbsent(key(x, y, z), size);
+            if(id == size){
+                if(size == counts.length){
+                    counts = Arrays.copyOf(counts, size * 2);
+                    sums = Arrays.copyOf(sums, size * 6);
+                }
+                size++;
+            }
+            sums[id * 3] += x;
+            sums[id * 3 + 1] += y;
+            sums[id * 3 + 2] += z;
+            counts[id]++;
+        }
+
+        /**
+         * Compute the mean of every cluster. No vertices can be added after.
+         */
+        void finish(){
+            means = new float[size * 3];
+            for(int i = 0; i < size; i++){
+                double n = counts[i];
+                means[i * 3] = (float) (sums[i * 3] / n);
+                means[i * 3 + 1] = (float) (sums[i * 3 + 1] / n);
+                means[i * 3 + 2] = (float) (sums[i * 3 + 2] / n);
+            }
+            sums = null;
+            counts = null;
+        }
+
+        /**
+         * Get the means of the clusters, three floats per cluster.
+         */
+        float[] getMeans(){
+            if(means == null) throw new IllegalStateException("Clusters are not finished");
+            return means;
+        }
+
+        /**
+         * Get the cluster of a vertex that was added.
+         */
+        int find(float x, float y, float z){
+            int id = cells.get(key(x, y, z));
+            if(id < 0) throw new IllegalArgumentException("Vertex was not clustered");
+            return id;
+        }
+
+        private long key(float x, float y, float z){
+            long cx = (long) Math.floor((x - origin.x) * scale);
+            long cy = (long) Math.floor((y - origin.y) * scale);
+            long cz = (long) Math.floor((z - origin.z) * scale);
+            return ((cx & CELL_MASK) << (CELL_BITS * 2)) | ((cy & CELL_MASK) << CELL_BITS) | (cz & CELL_MASK);
+        }
+
+    }
+
+
+    /**
+     * An open-addressing hash map from long keys to int values.
+     */
+    private static final class LongIntMap{
+
+        private long[] keys;
+        private int[] values;
+        private boolean[] used;
+        private int size;
+
+        LongIntMap(int capacity){
+            int n = Integer.highestOneBit(Math.max(capacity, 8) - 1) << 2;
+            this.keys = new long[n];
+            this.values = new int[n];
+            this.used = new boolean[n];
+        }
+
+        /**
+         * Get the value of a key, or -1 if it isn't in the map.
+         */
+        int get(long key){
+            int mask = keys.length - 1;
+            int slot = hash(key) & mask;
+            while(used[slot]){
+                if(keys[slot] == key) return values[slot];
+                slot = (slot + 1) & mask;
+            }
+            return -1;
+        }
+
+        /**
+         * Get the value of a key, adding it with the given value if it isn't
+         * in the map yet.
+         */
+        int putIfAbsent(long key, int value){
+            int mask = keys.length - 1;
+            int slot = hash(key) & mask;
+            while(used[slot]){
+                if(keys[slot] == key) return values[slot];
+                slot = (slot + 1) & mask;
+            }
+            used[slot] = true;
+            keys[slot] = key;
+            values[slot] = value;
+            if(++size * 2 > keys.length) grow();
+            return value;
+        }
+
+        private void grow(){
+            long[] oldKeys = keys;
+            int[] oldValues = values;
+            boolean[] oldUsed = used;
+            keys = new long[oldKeys.length * 2];
+            values = new int[oldKeys.length * 2];
+            used = new boolean[oldKeys.length * 2];
+            int mask = keys.length - 1;
+            for(int i = 0; i < oldKeys.length; i++){
+                if(!oldUsed[i]) continue;
+                int slot = hash(oldKeys[i]) & mask;
+                while(used[slot]) slot = (slot + 1) & mask;
+                used[slot] = true;
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+            }
+        }
+
+        private static int hash(long key){
+            key *= 0x9E3779B97F4A7C15L;
+            return (int) (key ^ (key >>> 32));
+        }
+
+    }
+
+
+    /**
+     * A hash set of faces, where two faces are equal if they join the same
+     * three clusters, in any order, with the same material.
+     */
+    private static final class FaceSet{
+
+        private int[] table;
+        private int size;
+
+        FaceSet(int capacity){
+            this.table = new int[Integer.highestOneBit(Math.max(capacity, 8) - 1) << 2];
+            Arrays.fill(table, -1);
+        }
+
+        /**
+         * Add a face, returning false if an equal face is already in the set.
+         */
+        boolean add(int face, int[] clusters, short[] materials){
+            int mask = table.length - 1;
+            int slot = hash(face, clusters, materials) & mask;
+            while(table[slot] >= 0){
+                if(equal(table[slot], face, clusters, materials)) return false;
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = face;
+            if(++size * 2 > table.length) grow(clusters, materials);
+            return true;
+        }
+
+        private void grow(int[] clusters, short[] materials){
+            int[] old = table;
+            table = new int[old.length * 2];
+            Arrays.fill(table, -1);
+            int mask = table.length - 1;
+            for(int face : old){
+                if(face < 0) continue;
+                int slot = hash(face, clusters, materials) & mask;
+                while(table[slot] >= 0) slot = (slot + 1) & mask;
+                table[slot] = face;
+            }
+        }
+
+        private static int hash(int face, int[] clusters, short[] materials){
+            //symmetric in the three clusters
+            int a = clusters[face * 3], b = clusters[face * 3 + 1], c = clusters[face * 3 + 2];
+            int h = (a * 0x9E3779B9) ^ (b * 0x9E3779B9) ^ (c * 0x9E3779B9);
+            h += (a + b + c) * 0x85EBCA6B + materials[face];
+            return h ^ (h >>> 16);
+        }
+
+        private static boolean equal(int f1, int f2, int[] clusters, short[] materials){
+            if(materials[f1] != materials[f2]) return false;
+            int a = clusters[f2 * 3], b = clusters[f2 * 3 + 1], c = clusters[f2 * 3 + 2];
+            for(int i = 0; i < 3; i++){
+                int x = clusters[f1 * 3 + i];
+                if(x != a && x != b && x != c) return false;
+            }
+            return true;
+        }
+
+    }
+
+}
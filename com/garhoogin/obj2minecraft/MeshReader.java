@@ -0,0 +1,58 @@
+package com.garhoogin.obj2minecraft;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * This class reads a model in any supported format into a {@code Mesh},
+ * choosing the reader by file extension. Binary STL, binary PLY and GLB
+ * files are read straight from memory-mapped buffers; anything else is read
+ * as an OBJ file by {@link ObjReader}.
+ *
+ * @author Declan Moore
+ */
+public class MeshReader {
+
+    /**
+     * Check whether a model file is in one of the binary formats, which are
+     * not read as OBJ files.
+     *
+     * @param path the path of the model
+     * @return     true if the model is an STL, PLY or GLB file
+     */
+    public static boolean isBinaryFormat(String path){
+        String name = path.toLowerCase();
+        return name.endsWith(".stl") || name.endsWith(".ply") || name.endsWith(".glb");
+    }
+
+
+    /**
+     * Read a model given by path, and define in {@code textures} the texture
+     * of every material. Decoding of the textures the mesh uses is started
+     * in the background.
+     *
+     * @param path         the path of the model to be read
+     * @param textures     the texture loader that is filled by this method
+     * @return             the mesh read from the given path
+     * @throws IOException if one or more files fail to be read
+     */
+    public static Mesh read(String path, TextureLoader textures) throws IOException{
+        String name = path.toLowerCase();
+        File f = new File(path);
+        Mesh mesh;
+        if(name.endsWith(".stl")){
+            mesh = StlReader.read(f);
+        } else if(name.endsWith(".ply")){
+            mesh = PlyReader.read(f, textures);
+        } else if(name.endsWith(".glb")){
+            mesh = GlbReader.read(f, textures);
+        } else {
+            return ObjReader.read(path, textures);
+        }
+
+        if(textures.isEmpty()) mesh = mesh.withoutMaterials();
+        textures.start(mesh);
+        return mesh;
+    }
+
+}
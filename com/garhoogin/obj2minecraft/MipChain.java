@@ -0,0 +1,172 @@
+package com.garhoogin.obj2minecraft;
+
+/**
+ * The {@code MipChain} class averages large rectangles of a texture from a
+ * pyramid of smaller copies of it. Each level is half the size of the one
+ * below, and each of its texels is the average of the 2x2 texels under it,
+ * with colors weighted by alpha just as a box of texels is averaged. A
+ * rectangle is averaged at the lowest level where it spans at most
+ * {@link #MAX_SPAN} texels across its short side, each weighted by how much
+ * of it the rectangle covers, so sampling reads a handful of texels however
+ * many it covers.
+ * <p>
+ * The pyramid only takes a third more memory than the texture, where a
+ * summed-area table takes eight times as much, but the average is only
+ * approximate, as the texels under a partly covered texel of the level
+ * count evenly. It is used instead of the summed-area table when the
+ * {@code obj2mc.textureFilter} system property is set to {@code mipmap}.
+ *
+ * @author Declan Moore
+ */
+final class MipChain {
+
+    /**
+     * the system property naming the way large boxes of a texture are
+     * averaged: {@code table}, exactly, or {@code mipmap}, approximately
+     */
+    static final String FILTER_PROPERTY = "obj2mc.textureFilter";
+
+    /**
+     * the most texels a rectangle spans across its short side at the level
+     * it is averaged at; along its long side it may span four times as many
+     */
+    static final int MAX_SPAN = 4;
+
+    private final int[][] levels;
+    private final int[] widths;
+    private final int[] heights;
+
+
+    /**
+     * Create a new instance of {@code MipChain} for a texture.
+     *
+     * @param pixels the texels as packed ARGB, row by row
+     * @param width  the width of the texture
+     * @param height the height of the texture
+     */
+    MipChain(int[] pixels, int width, int height){
+        int nLevels = 1;
+        while((width - 1) >> (nLevels - 1) > 0 || (height - 1) >> (nLevels - 1) > 0) nLevels++;
+        this.levels = new int[nLevels][];
+        this.widths = new int[nLevels];
+        this.heights = new int[nLevels];
+        levels[0] = pixels;
+        widths[0] = width;
+        heights[0] = height;
+        for(int l = 1; l < nLevels; l++){
+            int[] below = levels[l - 1];
+            int wb = widths[l - 1], hb = heights[l - 1];
+            int w = (wb + 1) / 2, h = (hb + 1) / 2;
+            int[] level = new int[w * h];
+            for(int y = 0; y < h; y++){
+                for(int x = 0; x < w; x++){
+                    //at an odd edge, only the texels that exist count
+                    long a = 0, r = 0, g = 0, b = 0;
+                    int n = 0;
+                    for(int sy = 2 * y; sy < Math.min(2 * y + 2, hb); sy++){
+                        for(int sx = 2 * x; sx < Math.min(2 * x + 2, wb); sx++){
+                            int c = below[sy * wb + sx];
+                            int ca = c >>> 24;
+                            a += ca;
+                            r += ((c >>> 16) & 0xFF) * ca;
+                            g += ((c >>> 8) & 0xFF) * ca;
+                            b += (c & 0xFF) * ca;
+                            n++;
+                        }
+                    }
+                    level[y * w + x] = average(a, r, g, b, n);
+                }
+            }
+            levels[l] = level;
+            widths[l] = w;
+            heights[l] = h;
+        }
+    }
+
+
+    /**
+     * Check whether the {@code obj2mc.textureFilter} property selects mip
+     * chains.
+     *
+     * @return true if it is set to {@code mipmap}
+     */
+    static boolean isSelected(){
+        return "mipmap".equalsIgnoreCase(System.getProperty(FILTER_PROPERTY));
+    }
+
+
+    /**
+     * Average a rectangle of texels, approximately. Texel coordinates wrap
+     * around the texture, as they do when it is sampled; a rectangle wider
+     * or taller than the texture is taken to cover it exactly once that way.
+     *
+     * @param xMin the first texel in the X direction
+     * @param yMin the first texel in the Y direction
+     * @param xMax the texel after the last in the X direction
+     * @param yMax the texel after the last in the Y direction
+     * @return     the average as packed ARGB
+     */
+    int average(int xMin, int yMin, int xMax, int yMax){
+        if(xMax <= xMin || yMax <= yMin) return 0;
+        int width = widths[0], height = heights[0];
+        int spanX = Math.min(xMax - xMin, width), spanY = Math.min(yMax - yMin, height);
+        int l = 0;
+        //a long, thin rectangle is read at the level that suits its short
+        //side, unless that takes too many texels along its long side
+        int shortSpan = Math.min(spanX, spanY), longSpan = Math.max(spanX, spanY);
+        while(l < levels.length - 1 && ((shortSpan - 1) >> l >= MAX_SPAN - 1 || (longSpan - 1) >> l >= 4 * MAX_SPAN - 1)) l++;
+        
+        //split a rectangle that wraps into the parts on each side, so the
+        //texels of the level line up with it
+        int x0 = spanX == width ? 0 : Math.floorMod(xMin, width), x1 = x0 + spanX;
+        int y0 = spanY == height ? 0 : Math.floorMod(yMin, height), y1 = y0 + spanY;
+        long[] totals = new long[5];
+        for(int wrapY = 0; wrapY <= (y1 > height ? 1 : 0); wrapY++){
+            for(int wrapX = 0; wrapX <= (x1 > width ? 1 : 0); wrapX++){
+                accumulate(l, wrapX == 0 ? x0 : 0, wrapY == 0 ? y0 : 0,
+                        wrapX == 0 ? Math.min(x1, width) : x1 - width, wrapY == 0 ? Math.min(y1, height) : y1 - height, totals);
+            }
+        }
+        return average(totals[0], totals[1], totals[2], totals[3], totals[4]);
+    }
+
+    /**
+     * Add up a rectangle of texels within the texture at a level, each
+     * weighted by how much of it the rectangle covers, to the totals of
+     * alpha, red, green and blue times alpha, and weight.
+     */
+    private void accumulate(int l, int xMin, int yMin, int xMax, int yMax, long[] totals){
+        int[] level = levels[l];
+        int w = widths[l];
+        for(int y = yMin >> l; y <= (yMax - 1) >> l; y++){
+            //the number of the rectangle's rows under this texel
+            int wy = Math.min((y + 1) << l, yMax) - Math.max(y << l, yMin);
+            for(int x = xMin >> l; x <= (xMax - 1) >> l; x++){
+                int wx = Math.min((x + 1) << l, xMax) - Math.max(x << l, xMin);
+                int c = level[y * w + x];
+                long weight = (long) wx * wy;
+                long ca = (c >>> 24) * weight;
+                totals[0] += ca;
+                totals[1] += ((c >>> 16) & 0xFF) * ca;
+                totals[2] += ((c >>> 8) & 0xFF) * ca;
+                totals[3] += (c & 0xFF) * ca;
+                totals[4] += weight;
+            }
+        }
+    }
+
+    /**
+     * Pack the average of some texels from their totals, the same way a box
+     * of texels is averaged.
+     */
+    private static int average(long a, long r, long g, long b, long n){
+        if(a == 0) return 0;
+        long totalAlpha = a;
+        a = (a + (n >>> 1)) / n;
+        r = (r + (totalAlpha >>> 1)) / totalAlpha;
+        g = (g + (totalAlpha >>> 1)) / totalAlpha;
+        b = (b + (totalAlpha >>> 1)) / totalAlpha;
+        return (int) ((a << 24) | (r << 16) | (g << 8) | b);
+    }
+
+}
@@ -0,0 +1,526 @@
+package com.garhoogin.obj2minecraft;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The {@code ObjParser} class tokenizes the bytes of an OBJ file directly,
+ * without creating a {@code String} for each line. Numbers are parsed by hand
+ * and polygons are fan-triangulated as they are read, so the parsed data is
+ * held only in primitive arrays.
+ *
+ * @author Declan Moore
+ */
+final class ObjParser {
+
+    /**
+     * vertex positions, three floats per vertex
+     */
+    final FloatList positions = new FloatList(1 << 16);
+
+    /**
+     * texture coordinates, two floats per coordinate
+     */
+    final FloatList texCoords = new FloatList(1 << 16);
+
+    /**
+     * triangle corners, two ints per corner (position index and texture
+     * coordinate index, or -1 if there is none), three corners per triangle
+     */
+    final IntList corners = new IntList(1 << 16);
+
+    /**
+     * the material index of each triangle, or -1 if there is none
+     */
+    final IntList triangleMaterials = new IntList(1 << 14);
+
+    /**
+     * the names of the materials referenced by {@code usemtl}
+     */
+    final List<String> materialNames = new ArrayList<>();
+
+    /**
+     * the names of the material libraries referenced by {@code mtllib}
+     */
+    final List<String> mtlLibs = new ArrayList<>();
+
+    /**
+     * the slots in {@code corners} holding indices that were given relative
+     * to the end of the vertex list, and so must be offset when parsers are
+     * joined
+     */
+    final IntList relativeCorners = new IntList(16);
+
+    /**
+     * the material of triangles that precede any {@code usemtl} in a range
+     * that doesn't start the file
+     */
+    static final int INHERIT_MATERIAL = -2;
+
+    /**
+     * The {@code TriangleSink} interface receives triangles from a parser that
+     * streams its triangles instead of storing them. Indices are 0-based and
+     * already resolved; a texture coordinate index of -1 means there is none.
+     */
+    interface TriangleSink{
+
+        void triangle(int v1, int vt1, int v2, int vt2, int v3, int vt3, int material);
+
+    }
+
+    /**
+     * The {@code VertexSink} interface receives vertices and texture
+     * coordinates from a parser that streams them instead of storing them.
+     * They arrive in file order, so the parser must be fed the whole file in
+     * order.
+     */
+    interface VertexSink{
+
+        void vertex(float x, float y, float z);
+
+        void texCoord(float u, float v);
+
+    }
+
+    private final Map<String, Integer> materialIndices = new HashMap<>();
+    private int currentMaterial;
+    private boolean lastIndexRelative;
+    private int vertexCount;
+    private int texCoordCount;
+    private boolean skipFaces;
+    private TriangleSink sink;
+    private VertexSink vertexSink;
+
+    private ByteBuffer buf;
+    private int pos;
+    private int end;
+
+    private static final double[] POW10 = new double[309];
+
+    static{
+        for(int i = 0; i < POW10.length; i++){
+            POW10[i] = Math.pow(10.0, i);
+        }
+    }
+
+
+    /**
+     * Create a new parser for the start of an OBJ file.
+     */
+    ObjParser(){
+        this(false);
+    }
+
+
+    /**
+     * Create a new parser.
+     *
+     * @param continuation true if this parser reads a range that does not
+     *                     start the file, in which case the material in effect
+     *                     at the start of the range is inherited when joined
+     */
+    ObjParser(boolean continuation){
+        this.currentMaterial = continuation ? INHERIT_MATERIAL : -1;
+    }
+
+
+    /**
+     * Parse a range of bytes from an OBJ file. The range should end on a line
+     * boundary; the last line in the range does not need to end with a
+     * newline.
+     *
+     * @param buf         the buffer holding the file contents
+     * @param start       the offset of the first byte to parse
+     * @param end         the offset after the last byte to parse
+     * @throws IOException if a number in the range is malformed
+     */
+    void parse(ByteBuffer buf, int start, int end) throws IOException{
+        this.buf = buf;
+        this.pos = start;
+        this.end = end;
+        while(pos < end){
+            parseLine();
+        }
+        this.buf = null;
+    }
+
+    /**
+     * Make this parser skip faces entirely, so that it only reads vertices,
+     * texture coordinates and materials.
+     */
+    void skipFaces(){
+        this.skipFaces = true;
+    }
+
+
+    /**
+     * Make this parser pass each triangle to a sink instead of storing it.
+     * Vertices and texture coordinates are then counted but not stored.
+     *
+     * @param sink the triangle sink
+     */
+    void streamFaces(TriangleSink sink){
+        this.sink = sink;
+    }
+
+
+    /**
+     * Make this parser pass each vertex and texture coordinate to a sink
+     * instead of storing it.
+     *
+     * @param vertexSink the vertex sink
+     */
+    void streamVertices(VertexSink vertexSink){
+        this.vertexSink = vertexSink;
+    }
+
+
+    /**
+     * Get the number of triangles parsed so far.
+     *
+     * @return the number of triangles
+     */
+    int getTriangleCount(){
+        return triangleMaterials.size();
+    }
+
+
+    /**
+     * Join the data of a parser that read the range immediately following
+     * this parser's onto the end of this parser. Relative indices in the
+     * appended data are offset by this parser's vertex counts, and triangles
+     * that came before the first {@code usemtl} of that range take this
+     * parser's current material.
+     *
+     * @param next the parser of the following range
+     */
+    void append(ObjParser next){
+        int positionBase = vertexCount;
+        int texCoordBase = texCoordCount;
+        vertexCount += next.vertexCount;
+        texCoordCount += next.texCoordCount;
+        int cornerBase = corners.size();
+        positions.addAll(next.positions);
+        texCoords.addAll(next.texCoords);
+        corners.addAll(next.corners);
+        for(int i = 0; i < next.relativeCorners.size(); i++){
+            int slot = next.relativeCorners.get(i);
+            int base = (slot & 1) == 0 ? positionBase : texCoordBase;
+            corners.set(cornerBase + slot, corners.get(cornerBase + slot) + base);
+        }
+
+        int[] materialMap = new int[next.materialNames.size()];
+        for(int i = 0; i < materialMap.length; i++){
+            materialMap[i] = getMaterialIndex(next.materialNames.get(i));
+        }
+        for(int i = 0; i < next.triangleMaterials.size(); i++){
+            int material = next.triangleMaterials.get(i);
+            if(material == INHERIT_MATERIAL) material = currentMaterial;
+            else if(material >= 0) material = materialMap[material];
+            triangleMaterials.add(material);
+        }
+        if(next.currentMaterial != INHERIT_MATERIAL){
+            currentMaterial = next.currentMaterial < 0 ? -1 : materialMap[next.currentMaterial];
+        }
+        mtlLibs.addAll(next.mtlLibs);
+    }
+
+    /**
+     * Create a {@code Mesh} from the parsed data. Triangles only keep their
+     * material if all three corners have texture coordinates.
+     *
+     * @return             a new mesh
+     * @throws IOException if a triangle refers to a vertex that doesn't exist
+     */
+    Mesh toMesh() throws IOException{
+        if(materialNames.size() > Short.MAX_VALUE) throw new IOException("Too many materials");
+        int nPositions = positions.size() / 3;
+        int nTexCoords = texCoords.size() / 2;
+        int nTriangles = getTriangleCount();
+        int[] indices = new int[nTriangles * 3];
+        int[] texIndices = new int[nTriangles * 3];
+        short[] materials = new short[nTriangles];
+        for(int i = 0; i < nTriangles; i++){
+            boolean textured = true;
+            for(int j = 0; j < 3; j++){
+                int v = corners.get(i * 6 + j * 2);
+                int vt = corners.get(i * 6 + j * 2 + 1);
+                if(v < 0 || v >= nPositions || vt >= nTexCoords){
+                    throw new IOException("Invalid vertex index in OBJ file");
+                }
+                if(vt < 0) textured = false;
+                indices[i * 3 + j] = v;
+                texIndices[i * 3 + j] = vt;
+            }
+            int material = triangleMaterials.get(i);
+            if(!textured){
+                texIndices[i * 3] = texIndices[i * 3 + 1] = texIndices[i * 3 + 2] = -1;
+                material = -1;
+            }
+            materials[i] = (short) Math.max(material, -1);
+        }
+        return new Mesh(positions.toArray(), texCoords.toArray(), indices, texIndices,
+                materials, materialNames.toArray(new String[0]));
+    }
+
+    private int getMaterialIndex(String name){
+        Integer index = materialIndices.get(name);
+        if(index == null){
+            index = materialNames.size();
+            materialNames.add(name);
+            materialIndices.put(name, index);
+        }
+        return index;
+    }
+
+    private void parseLine() throws IOException{
+        skipBlanks();
+        if(pos >= end) return;
+        byte c = buf.get(pos);
+        if(c == 'v'){
+            byte c1 = peek(1);
+            if(isBlank(c1)){
+                vertexCount++;
+                if(sink == null){
+                    pos++;
+                    float x = readFloat();
+                    float y = readFloat();
+                    float z = readFloat();
+                    if(vertexSink != null) vertexSink.vertex(x, y, z);
+                    else positions.add(x, y, z);
+                }
+            } else if(c1 == 't' && isBlank(peek(2))){
+                texCoordCount++;
+                if(sink == null){
+                    pos += 2;
+                    float u = readFloat();
+                    float v = readFloat();
+                    if(vertexSink != null) vertexSink.texCoord(u, v);
+                    else texCoords.add(u, v);
+                }
+            }
+        } else if(c == 'f' && isBlank(peek(1))){
+            pos++;
+            if(!skipFaces) parseFace();
+        } else if(matchKeyword("usemtl")){
+            currentMaterial = getMaterialIndex(readToken());
+        } else if(matchKeyword("mtllib")){
+            mtlLibs.add(readToken());
+        }
+        skipLine();
+    }
+
+    private void parseFace(){
+        int firstV = 0, firstVt = 0, prevV = 0, prevVt = 0;
+        int firstRelative = 0, prevRelative = 0;
+        int nCorners = 0;
+        while(true){
+            skipBlanks();
+            if(pos >= end || isLineEnd(buf.get(pos))) break;
+            int v = readIndex(vertexCount);
+            int vt = -1;
+            //bit 0: position index is relative, bit 1: texture coordinate
+            int relative = lastIndexRelative ? 1 : 0;
+            if(pos < end && buf.get(pos) == '/'){
+                pos++;
+                if(pos < end && buf.get(pos) != '/' && !isSpace(buf.get(pos))){
+                    vt = readIndex(texCoordCount);
+                    if(lastIndexRelative) relative |= 2;
+                }
+            }
+            //skip the normal index and anything else left in this corner
+            while(pos < end && !isSpace(buf.get(pos))) pos++;
+
+            if(nCorners == 0){
+                firstV = v;
+                firstVt = vt;
+                firstRelative = relative;
+            } else if(nCorners >= 2 && sink != null){
+                sink.triangle(firstV, firstVt, prevV, prevVt, v, vt, currentMaterial);
+            } else if(nCorners >= 2){
+                addCorner(firstV, firstVt, firstRelative);
+                addCorner(prevV, prevVt, prevRelative);
+                addCorner(v, vt, relative);
+                triangleMaterials.add(currentMaterial);
+            }
+            prevV = v;
+            prevVt = vt;
+            prevRelative = relative;
+            nCorners++;
+        }
+    }
+
+    private void addCorner(int v, int vt, int relative){
+        int slot = corners.size();
+        if((relative & 1) != 0) relativeCorners.add(slot);
+        if((relative & 2) != 0) relativeCorners.add(slot + 1);
+        corners.add(v, vt);
+    }
+
+    /**
+     * Read a 1-based (or negative, relative) OBJ index and convert it to a
+     * 0-based index.
+     */
+    private int readIndex(int count){
+        boolean negative = false;
+        if(pos < end && buf.get(pos) == '-'){
+            negative = true;
+            pos++;
+        }
+        int value = 0;
+        byte c;
+        while(pos < end && (c = buf.get(pos)) >= '0' && c <= '9'){
+            value = value * 10 + (c - '0');
+            pos++;
+        }
+        lastIndexRelative = negative;
+        return negative ? count - value : value - 1;
+    }
+
+    private float readFloat() throws IOException{
+        skipBlanks();
+        int start = pos;
+        boolean negative = false;
+        byte c = pos < end ? buf.get(pos) : 0;
+        if(c == '-' || c == '+'){
+            negative = c == '-';
+            pos++;
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int exponent = 0;
+        boolean any = false;
+        while(pos < end && (c = buf.get(pos)) >= '0' && c <= '9'){
+            if(digits < 18){
+                mantissa = mantissa * 10 + (c - '0');
+                if(mantissa != 0) digits++;
+            } else {
+                exponent++;
+            }
+            any = true;
+            pos++;
+        }
+        if(pos < end && buf.get(pos) == '.'){
+            pos++;
+            while(pos < end && (c = buf.get(pos)) >= '0' && c <= '9'){
+                if(digits < 18){
+                    mantissa = mantissa * 10 + (c - '0');
+                    if(mantissa != 0) digits++;
+                    exponent--;
+                }
+                any = true;
+                pos++;
+            }
+        }
+        if(!any){
+            pos = start;
+            if(pos >= end || isSpace(buf.get(pos))) return 0.0f; //missing value
+            return readFloatSlow();
+        }
+        if(pos < end && ((c = buf.get(pos)) == 'e' || c == 'E')){
+            pos++;
+            boolean negativeExponent = false;
+            if(pos < end && ((c = buf.get(pos)) == '-' || c == '+')){
+                negativeExponent = c == '-';
+                pos++;
+            }
+            int e = 0;
+            while(pos < end && (c = buf.get(pos)) >= '0' && c <= '9'){
+                if(e < 10000) e = e * 10 + (c - '0');
+                pos++;
+            }
+            exponent += negativeExponent ? -e : e;
+        }
+        if(pos < end && !isSpace(buf.get(pos))){
+            //something we don't understand, let Java deal with it
+            pos = start;
+            return readFloatSlow();
+        }
+        double value = mantissa;
+        if(exponent > 0){
+            value = exponent >= POW10.length ? Double.POSITIVE_INFINITY : value * POW10[exponent];
+        } else if(exponent < 0){
+            value = -exponent >= POW10.length ? 0.0 : value / POW10[-exponent];
+        }
+        return (float) (negative ? -value : value);
+    }
+
+    private float readFloatSlow() throws IOException{
+        int start = pos;
+        String token = readToken();
+        try{
+            return Float.parseFloat(token);
+        } catch(NumberFormatException ex){
+            throw new IOException("Invalid number \"" + token + "\" in OBJ file on line: " + getLine(start), ex);
+        }
+    }
+
+    /**
+     * Get the text of the line holding a byte of the buffer, for error
+     * messages. Ranges are parsed out of order, so the line is named by its
+     * contents rather than its number.
+     */
+    private String getLine(int position){
+        int lineStart = position, lineEnd = position;
+        while(lineStart > 0 && buf.get(lineStart - 1) != '\n') lineStart--;
+        while(lineEnd < end && buf.get(lineEnd) != '\n' && buf.get(lineEnd) != '\r') lineEnd++;
+        byte[] bytes = new byte[Math.min(lineEnd - lineStart, 200)];
+        for(int i = 0; i < bytes.length; i++){
+            bytes[i] = buf.get(lineStart + i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private String readToken(){
+        skipBlanks();
+        int start = pos;
+        while(pos < end && !isSpace(buf.get(pos))) pos++;
+        byte[] bytes = new byte[pos - start];
+        for(int i = 0; i < bytes.length; i++){
+            bytes[i] = buf.get(start + i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private boolean matchKeyword(String keyword){
+        int len = keyword.length();
+        if(pos + len >= end) return false;
+        for(int i = 0; i < len; i++){
+            if(buf.get(pos + i) != keyword.charAt(i)) return false;
+        }
+        if(!isBlank(buf.get(pos + len))) return false;
+        pos += len;
+        return true;
+    }
+
+    private byte peek(int offset){
+        return pos + offset < end ? buf.get(pos + offset) : (byte) '\n';
+    }
+
+    private void skipBlanks(){
+        while(pos < end && isBlank(buf.get(pos))) pos++;
+    }
+
+    private void skipLine(){
+        while(pos < end && buf.get(pos) != '\n') pos++;
+        pos++;
+    }
+
+    private static boolean isBlank(byte c){
+        return c == ' ' || c == '\t' || c == '\r';
+    }
+
+    private static boolean isLineEnd(byte c){
+        return c == '\n' || c == '#';
+    }
+
+    private static boolean isSpace(byte c){
+        return c == ' ' || c == '\t' || c == '\r' || c == '\n';
+    }
+
+}
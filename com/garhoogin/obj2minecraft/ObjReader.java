@@ -1,11 +1,26 @@
 package com.garhoogin.obj2minecraft;
 
-import java.io.ByteArrayInputStream;
+import static com.garhoogin.obj2minecraft.Main.MAX_THREADS;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
-import javax.imageio.ImageIO;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.BiConsumer;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
 
 
 /**
@@ -15,6 +30,16 @@ import javax.imageio.ImageIO;
  */
 public class ObjReader {
     
+    /**
+     * the largest part of a file that is memory-mapped at once
+     */
+    static final long MAP_WINDOW_SIZE = 1L << 30;
+    
+    /**
+     * the smallest range of a file worth parsing on its own thread
+     */
+    static final long MIN_RANGE_SIZE = 1L << 22;
+    
     /**
      * Read an integer from a string. Essentially the same as {@code atoi} in C.
      * 
@@ -31,126 +56,446 @@ public class ObjReader {
         return Integer.parseInt(s.substring(0, nlen));
     }
     
+    /**
+     * Read an MTL file and define the texture image of each material in it.
+     * The images themselves are not read here.
+     * 
+     * @param path     the path of the MTL file
+     * @param textures the texture loader to define textures in
+     */
     @SuppressWarnings({"CallToPrintStackTrace"})
-    static void readMtl(String path, List<Texture> textures) throws IOException{
-        try{
-            File f = new File(path);
-            Scanner sc = new Scanner(new FileInputStream(f));
-            String currentTexture = "";
-            while(sc.hasNextLine()){
-                String line = sc.nextLine();
-                String[] args = line.split(" ");
-                if(args[0].equals("newmtl")){
-                    currentTexture = args[1];
-                } else if(args[0].equals("map_Kd")){
-                    textures.add(new Texture(ImageIO.read(new File(f.getAbsoluteFile().getParent() + "/" + args[1])), currentTexture));
+    static void readMtl(String path, TextureLoader textures){
+        File f = new File(path);
+        String dir = f.getAbsoluteFile().getParent();
+        try(InputStream in = new FileInputStream(f)){
+            readMtl(in, (material, image) -> textures.define(material, new File(dir + "/" + image)));
+        } catch(IOException ex){
+            System.err.println("Error reading MTL file.");
+            ex.printStackTrace();
+        }
+    }
+    
+    /**
+     * Read an MTL file from a stream, passing the material name and texture
+     * image name of each {@code map_Kd} to a consumer.
+     */
+    private static void readMtl(InputStream in, BiConsumer<String, String> define){
+        Scanner sc = new Scanner(in);
+        String currentTexture = "";
+        while(sc.hasNextLine()){
+            String[] args = sc.nextLine().trim().split("\\s+");
+            if(args.length < 2) continue;
+            if(args[0].equals("newmtl")){
+                currentTexture = args[1];
+            } else if(args[0].equals("map_Kd")){
+                //the file name comes after any options
+                define.accept(currentTexture, args[args.length - 1]);
+            }
+        }
+    }
+    
+    /**
+     * Read the material libraries of a model and define the texture image of
+     * each material in them. The libraries of a model in a ZIP archive, and
+     * the images they name, are looked up in the same archive.
+     * 
+     * @param model    the model file
+     * @param mtlLibs  the names of the model's material libraries
+     * @param textures the texture loader to define textures in
+     */
+    @SuppressWarnings({"CallToPrintStackTrace"})
+    static void readMtlLibs(File model, List<String> mtlLibs, TextureLoader textures){
+        if(!isZip(model)){
+            for(String mtl : mtlLibs){
+                readMtl(model.getAbsoluteFile().getParent() + "/" + mtl, textures);
+            }
+            return;
+        }
+        
+        File archive = model.getAbsoluteFile();
+        try(ZipFile zip = new ZipFile(archive)){
+            String dir = getEntryDirectory(findObjEntry(zip).getName());
+            for(String mtl : mtlLibs){
+                String name = resolveEntry(dir, mtl);
+                ZipEntry entry = zip.getEntry(name);
+                if(entry == null){
+                    System.err.println("MTL file " + name + " not found in " + archive);
+                    continue;
+                }
+                String mtlDir = getEntryDirectory(name);
+                try(InputStream in = zip.getInputStream(entry)){
+                    readMtl(in, (material, image) -> textures.define(material, archive, resolveEntry(mtlDir, image)));
                 }
             }
-        } catch(Exception ex){
+        } catch(IOException ex){
             System.err.println("Error reading MTL file.");
             ex.printStackTrace();
+        }
+    }
+    
+    /**
+     * Check whether a model file is a gzip-compressed OBJ file.
+     * 
+     * @param f the model file
+     * @return  true if the file name ends with {@code .gz}
+     */
+    static boolean isGzip(File f){
+        return f.getName().toLowerCase().endsWith(".gz");
+    }
+    
+    /**
+     * Check whether a model file is a ZIP archive holding an OBJ file.
+     * 
+     * @param f the model file
+     * @return  true if the file name ends with {@code .zip}
+     */
+    static boolean isZip(File f){
+        return f.getName().toLowerCase().endsWith(".zip");
+    }
+    
+    private static ZipEntry findObjEntry(ZipFile zip) throws IOException{
+        Enumeration<? extends ZipEntry> entries = zip.entries();
+        while(entries.hasMoreElements()){
+            ZipEntry entry = entries.nextElement();
+            if(!entry.isDirectory() && entry.getName().toLowerCase().endsWith(".obj")) return entry;
+        }
+        throw new FileNotFoundException("No OBJ file in " + zip.getName());
+    }
+    
+    private static String getEntryDirectory(String name){
+        return name.substring(0, name.lastIndexOf('/') + 1);
+    }
+    
+    /**
+     * Resolve a relative path against a directory inside an archive.
+     */
+    private static String resolveEntry(String dir, String name){
+        Deque<String> parts = new ArrayDeque<>();
+        for(String part : (dir + name).replace('\\', '/').split("/")){
+            if(part.isEmpty() || part.equals(".")) continue;
+            if(part.equals("..")) parts.pollLast();
+            else parts.add(part);
+        }
+        return String.join("/", parts);
+    }
+    
+    /**
+     * Open the OBJ data of a compressed model file as a decompressing stream.
+     */
+    private static InputStream openCompressed(File f) throws IOException{
+        if(isGzip(f)) return new GZIPInputStream(new FileInputStream(f), 1 << 16);
+        ZipFile zip = new ZipFile(f);
+        try{
+            InputStream in = zip.getInputStream(findObjEntry(zip));
+            return new FilterInputStream(in){
+                @Override
+                public void close() throws IOException{
+                    try{
+                        super.close();
+                    } finally {
+                        zip.close();
+                    }
+                }
+            };
+        } catch(IOException | RuntimeException ex){
+            zip.close();
+            throw ex;
+        }
+    }
+    
+    
+    /**
+     * Parse an OBJ file. The file is split into ranges that each start and end
+     * on a line boundary, and the ranges are parsed concurrently and then
+     * joined in file order.
+     * 
+     * @param f            the OBJ file
+     * @return             the parsed contents of the file
+     * @throws IOException if the file could not be read
+     */
+    static ObjParser parse(File f) throws IOException{
+        return parse(f, false);
+    }
+    
+    /**
+     * Parse an OBJ file, optionally skipping all faces. Compressed files
+     * ({@code .gz}, or a {@code .zip} archive holding an OBJ file) are parsed
+     * straight from a decompressing stream.
+     * 
+     * @param f            the OBJ file
+     * @param skipFaces    true to only read vertices, texture coordinates and
+     *                     materials
+     * @return             the parsed contents of the file
+     * @throws IOException if the file could not be read
+     * @see                #parse(File)
+     */
+    static ObjParser parse(File f, boolean skipFaces) throws IOException{
+        if(isGzip(f) || isZip(f)){
+            try(InputStream in = openCompressed(f)){
+                return parse(in, skipFaces);
+            }
+        }
+        try(FileChannel channel = FileChannel.open(f.toPath(), StandardOpenOption.READ)){
+            long size = channel.size();
+            int nThreads = Math.min(MAX_THREADS, Runtime.getRuntime().availableProcessors());
+            long rangeSize = Math.max((size + nThreads - 1) / nThreads, MIN_RANGE_SIZE);
+            rangeSize = Math.min(rangeSize, MAP_WINDOW_SIZE);
+            
+            List<Long> starts = new ArrayList<>();
+            long offset = 0;
+            while(offset < size){
+                starts.add(offset);
+                offset = findLineStart(channel, offset + rangeSize);
+            }
+            starts.add(size);
+            
+            int nRanges = starts.size() - 1;
+            if(nRanges <= 1){
+                ObjParser parser = new ObjParser();
+                if(skipFaces) parser.skipFaces();
+                if(nRanges == 1) parseRange(channel, parser, 0, size);
+                return parser;
+            }
+            
+            ExecutorService executor = Executors.newFixedThreadPool(Math.min(nThreads, nRanges));
             try{
-                Thread.sleep(1000);
-            } catch(InterruptedException ex2){}
+                List<Future<ObjParser>> futures = new ArrayList<>();
+                for(int i = 0; i < nRanges; i++){
+                    long start = starts.get(i);
+                    long end = starts.get(i + 1);
+                    futures.add(executor.submit(() -> {
+                        ObjParser parser = new ObjParser(start != 0);
+                        if(skipFaces) parser.skipFaces();
+                        parseRange(channel, parser, start, end);
+                        return parser;
+                    }));
+                }
+                ObjParser parser = null;
+                for(Future<ObjParser> future : futures){
+                    ObjParser next = getResult(future);
+                    if(parser == null) parser = next;
+                    else parser.append(next);
+                }
+                return parser;
+            } finally {
+                executor.shutdownNow();
+            }
         }
     }
     
+    /**
+     * Parse OBJ data from a stream. The stream is read on the calling thread
+     * in chunks that each end on a line boundary, and the chunks are parsed
+     * concurrently and joined in order as they finish. Reading stays a
+     * bounded number of chunks ahead of the joined result.
+     * 
+     * @param in           the stream of OBJ data
+     * @param skipFaces    true to only read vertices, texture coordinates and
+     *                     materials
+     * @return             the parsed contents of the stream
+     * @throws IOException if the stream could not be read
+     */
+    static ObjParser parse(InputStream in, boolean skipFaces) throws IOException{
+        int nThreads = Math.min(MAX_THREADS, Runtime.getRuntime().availableProcessors());
+        LineChunker chunker = new LineChunker(in);
+        ExecutorService executor = Executors.newFixedThreadPool(nThreads);
+        try{
+            Deque<Future<ObjParser>> pending = new ArrayDeque<>();
+            ObjParser parser = new ObjParser();
+            if(skipFaces) parser.skipFaces();
+            boolean first = true;
+            ByteBuffer chunk;
+            while((chunk = chunker.next()) != null){
+                ByteBuffer c = chunk;
+                boolean continuation = !first;
+                first = false;
+                pending.add(executor.submit(() -> {
+                    ObjParser next = new ObjParser(continuation);
+                    if(skipFaces) next.skipFaces();
+                    next.parse(c, 0, c.limit());
+                    return next;
+                }));
+                if(pending.size() > nThreads * 2){
+                    parser.append(getResult(pending.poll()));
+                }
+            }
+            while(!pending.isEmpty()){
+                parser.append(getResult(pending.poll()));
+            }
+            return parser;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
     
     /**
-     * Expand all polygons in an input OBJ file into triangles.
+     * Feed a whole OBJ file to one parser, in order, on the calling thread.
      * 
-     * @param sc a scanner that is reading an OBJ file
-     * @return   a string containing a new OBJ file where all polygons are
-     *           expanded into triangles.
+     * @param f            the OBJ file
+     * @param parser       the parser
+     * @throws IOException if the file could not be read
      */
-    public static String expandPoly(Scanner sc){
-        StringBuilder sb = new StringBuilder();
-        while(sc.hasNextLine()){
-            String line = sc.nextLine();
-            String cmd = line.split(" ")[0];
-            if(!cmd.equals("f")){
-                sb.append(line + "\n");
-                continue;
+    static void parseSequential(File f, ObjParser parser) throws IOException{
+        if(isGzip(f) || isZip(f)){
+            try(InputStream in = openCompressed(f)){
+                LineChunker chunker = new LineChunker(in);
+                ByteBuffer chunk;
+                while((chunk = chunker.next()) != null){
+                    parser.parse(chunk, 0, chunk.limit());
+                }
+            }
+            return;
+        }
+        try(FileChannel channel = FileChannel.open(f.toPath(), StandardOpenOption.READ)){
+            long size = channel.size();
+            long offset = 0;
+            while(offset < size){
+                //a single mapping can't exceed 2GB, so map the file in windows
+                //that each end on a line boundary.
+                long end = findLineStart(channel, offset + MAP_WINDOW_SIZE);
+                parseRange(channel, parser, offset, end);
+                offset = end;
+            }
+        }
+    }
+    
+    private static void parseRange(FileChannel channel, ObjParser parser, long start, long end) throws IOException{
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+        parser.parse(buffer, 0, (int) (end - start));
+    }
+    
+    /**
+     * Find the start of the first line at or after an offset in a file.
+     */
+    private static long findLineStart(FileChannel channel, long offset) throws IOException{
+        long size = channel.size();
+        if(offset >= size) return size;
+        ByteBuffer buffer = ByteBuffer.allocate(8192);
+        //the line starts right here if the previous byte ends a line
+        offset--;
+        while(offset < size){
+            buffer.clear();
+            int n = channel.read(buffer, offset);
+            if(n <= 0) break;
+            for(int i = 0; i < n; i++){
+                if(buffer.get(i) == '\n') return offset + i + 1;
             }
-            String[] args = line.substring(2).trim().split(" ");
-            for(int i = 0; i < args.length - 2; i++){
-                sb.append("f " + args[0] + " " + args[i + 1] + " " + args[i + 2] + "\n");
+            offset += n;
+        }
+        return size;
+    }
+    
+    /**
+     * Reads a stream in chunks of whole lines. Each chunk is a new buffer, so
+     * a chunk can be parsed while the next one is read.
+     */
+    private static final class LineChunker{
+        
+        private final InputStream in;
+        private byte[] carry = new byte[0];
+        private boolean done;
+        
+        LineChunker(InputStream in){
+            this.in = in;
+        }
+        
+        /**
+         * Read the next chunk, or return null at the end of the stream. The
+         * chunk's limit is the length of its data.
+         */
+        ByteBuffer next() throws IOException{
+            if(done && carry.length == 0) return null;
+            int size = (int) MIN_RANGE_SIZE;
+            byte[] data = Arrays.copyOf(carry, Math.max(size, carry.length * 2));
+            int length = carry.length;
+            while(true){
+                if(!done){
+                    int n = fill(data, length, data.length - length);
+                    length += n;
+                    if(length < data.length) done = true;
+                }
+                if(done){
+                    carry = new byte[0];
+                    return length == 0 ? null : ByteBuffer.wrap(data, 0, length).slice();
+                }
+                //cut after the last newline, keep the partial line for later
+                int cut = length;
+                while(cut > 0 && data[cut - 1] != '\n') cut--;
+                if(cut > 0){
+                    carry = Arrays.copyOfRange(data, cut, length);
+                    return ByteBuffer.wrap(data, 0, cut).slice();
+                }
+                //a single line longer than the buffer
+                data = Arrays.copyOf(data, data.length * 2);
+            }
+        }
+        
+        /**
+         * Read bytes until the range is full or the stream ends.
+         * 
+         * @return the number of bytes read
+         */
+        private int fill(byte[] b, int offset, int length) throws IOException{
+            int n = 0;
+            while(n < length){
+                int read = in.read(b, offset + n, length - n);
+                if(read < 0) break;
+                n += read;
             }
+            return n;
+        }
+        
+    }
+    
+    private static ObjParser getResult(Future<ObjParser> future) throws IOException{
+        try{
+            return future.get();
+        } catch(InterruptedException ex){
+            throw new InterruptedIOException("Interrupted while reading OBJ file");
+        } catch(ExecutionException ex){
+            Throwable cause = ex.getCause();
+            if(cause instanceof IOException) throw (IOException) cause;
+            if(cause instanceof RuntimeException) throw (RuntimeException) cause;
+            throw new IOException(cause);
         }
-        sc.close();
-        return sb.toString();
     }
     
     /**
-     * Read an OBJ file given by path, and writes to textureMap name/value pairs
-     * for all textures that end up being read.
+     * Read an OBJ file given by path, and defines in {@code textures} the
+     * texture of every material. Decoding of the textures the mesh uses is
+     * started in the background. The file is memory-mapped and
+     * tokenized directly from its bytes, split across several threads. A
+     * {@code .obj.gz} file, or a {@code .zip} archive holding an OBJ file with
+     * its materials and textures, is parsed from a decompressing stream
+     * without being extracted. The parsed mesh is cached, see
+     * {@link MeshCache}.
      * 
      * @param path         the path to an OBJ file to be read
-     * @param textureMap   the map of textures that is filled by this method
-     * @return             an array of triangles read from the given path
+     * @param textures     the texture loader that is filled by this method
+     * @return             the mesh read from the given path
      * @throws IOException if one or more files fail to be read
      */
-    public static Triangle[] read(String path, Map<String, Texture> textureMap) throws IOException{
+    public static Mesh read(String path, TextureLoader textures) throws IOException{
         
         File f = new File(path);
-        Scanner sc = new Scanner(new FileInputStream(f));
-        String fixed = expandPoly(sc);
-        sc = new Scanner(new ByteArrayInputStream(fixed.getBytes()));
-        List<Triangle> triangles = new ArrayList<>();
-        List<Vec3> points = new ArrayList<>();
-        List<Coord> texCoords = new ArrayList<>();
-        List<Texture> textures = new ArrayList<>();
-        String currentMtl = null;
-        while(sc.hasNextLine()){
-            String line = sc.nextLine();
-            String[] args = line.split(" ");
-            if(args[0].equals("v")){
-                points.add(new Vec3(Float.parseFloat(args[1]), Float.parseFloat(args[2]), Float.parseFloat(args[3])));
-            } else if(args[0].equals("vt")){
-                float u = Float.parseFloat(args[1]);
-                float v = Float.parseFloat(args[2]);
-                texCoords.add(new Coord(u, v));
-            } else if(args[0].equals("mtllib")){
-                String mtl = args[1];
-                readMtl(f.getAbsoluteFile().getParent() + "/" + mtl, textures);
-            } else if(args[0].equals("usemtl")){
-                if(!textures.isEmpty()) currentMtl = args[1];
-            } else if(args[0].equals("f")){
-                String[] comp1 = args[1].split("/");
-                String[] comp2 = args[2].split("/");
-                String[] comp3 = args[3].split("/");
-                
-                int u1 = 0, v1 = 0, u2 = 0, v2 = 0, u3 = 0, v3 = 0;
-                if(comp1.length > 1 && comp2.length > 1 && comp3.length > 1){
-                    
-                    int i1 = Integer.parseInt(comp1[0]) - 1;
-                    int i2 = Integer.parseInt(comp2[0]) - 1;
-                    int i3 = Integer.parseInt(comp3[0]) - 1;
-                    
-                    Coord uv1 = texCoords.get(Integer.parseInt(comp1[1]) - 1);
-                    Coord uv2 = texCoords.get(Integer.parseInt(comp2[1]) - 1);
-                    Coord uv3 = texCoords.get(Integer.parseInt(comp3[1]) - 1);
-                    Triangle t = new Triangle(points.get(i1), uv1, points.get(i2), uv2, points.get(i3), uv3, currentMtl);
-                    triangles.add(t);
-                    triangles.add(Triangle.flip(t));
-                } else {
-                
-                    int i1 = Integer.parseInt(comp1[0]) - 1;
-                    int i2 = Integer.parseInt(comp2[0]) - 1;
-                    int i3 = Integer.parseInt(comp3[0]) - 1;
-                    
-                    Triangle t = new Triangle(points.get(i1), points.get(i2), points.get(i3));
-                    triangles.add(t);
-                    triangles.add(Triangle.flip(t));
-                }
-            }
+        Mesh mesh = null;
+        List<String> mtlLibs = new ArrayList<>();
+        MeshCache cache = MeshCache.isEnabled() ? new MeshCache(f) : null;
+        if(cache != null) mesh = cache.load(mtlLibs);
+        if(mesh == null){
+            ObjParser parser = parse(f);
+            mesh = parser.toMesh();
+            mtlLibs.addAll(parser.mtlLibs);
+            if(cache != null) cache.store(mesh, mtlLibs);
+        } else {
+            System.out.println("Loaded cached mesh for " + path);
         }
-        sc.close();
-        for (Texture texture : textures) {
-            textureMap.put(texture.name, texture);
-        }
-        Triangle[] toReturn = new Triangle[triangles.size()];
-        return (Triangle[]) triangles.toArray(toReturn);
+        
+        readMtlLibs(f, mtlLibs, textures);
+        
+        if(textures.isEmpty()) mesh = mesh.withoutMaterials();
+        textures.start(mesh);
+        return mesh;
     }
     
 }
@@ -0,0 +1,82 @@
+package com.garhoogin.obj2minecraft;
+
+/**
+ * An {@code OverlapKernel} tests one block against a run of faces from a
+ * list at once, with the same result as calling {@link Main#tricube_overlap}
+ * on each face. Most faces near a block are rejected by their bounding box
+ * alone, so the vectorized kernel checks the bounding boxes of a whole run in
+ * a few vector operations, and only runs the full test on the faces that
+ * pass. It uses the incubating Java Vector API, and is only available when
+ * the {@code vector} source directory is compiled in and the program is run
+ * with {@code --add-modules jdk.incubator.vector}; otherwise faces are tested
+ * one at a time. Setting the {@code obj2mc.vector} system property to false
+ * always tests them one at a time.
+ *
+ * @author Declan Moore
+ */
+interface OverlapKernel {
+
+    /**
+     * the system property that turns the vectorized kernel off when false
+     */
+    static final String VECTOR_PROPERTY = "obj2mc.vector";
+
+
+    /**
+     * Get the number of faces this kernel tests best at once.
+     *
+     * @return the batch size, at most 64
+     */
+    int getBatchSize();
+
+
+    /**
+     * Test a block against a run of faces of the list.
+     *
+     * @param offset  the index in the list of the first face to test
+     * @param count   the number of faces to test, at most 64
+     * @param x       the x coordinate of the block
+     * @param y       the y coordinate of the block
+     * @param z       the z coordinate of the block
+     * @param boxSize the size of the test box
+     * @return        a mask with bit {@code i} set if the face at
+     *                {@code offset + i} overlaps the block
+     */
+    long test(int offset, int count, float x, float y, float z, float boxSize);
+
+
+    /**
+     * Create the fastest kernel available for a list of faces.
+     *
+     * @param mesh  the mesh
+     * @param faces the list of faces, which must not change afterwards
+     * @return      the vectorized kernel if it can be loaded, otherwise a
+     *              kernel that tests faces one at a time
+     */
+    static OverlapKernel create(Mesh mesh, int[] faces){
+        if(!"false".equalsIgnoreCase(System.getProperty(VECTOR_PROPERTY))){
+            try{
+                Class<?> c = Class.forName("com.garhoogin.obj2minecraft.VectorOverlapKernel");
+                return (OverlapKernel) c.getDeclaredConstructor(Mesh.class, int[].class).newInstance(mesh, faces);
+            } catch(ReflectiveOperationException | LinkageError ex){
+                //not compiled in, or jdk.incubator.vector not added
+            }
+        }
+        return new OverlapKernel(){
+            @Override
+            public int getBatchSize(){
+                return 1;
+            }
+
+            @Override
+            public long test(int offset, int count, float x, float y, float z, float boxSize){
+                long hits = 0;
+                for(int i = 0; i < count; i++){
+                    if(Main.tricube_overlap(mesh, faces[offset + i], x, y, z, boxSize)) hits |= 1L << i;
+                }
+                return hits;
+            }
+        };
+    }
+
+}
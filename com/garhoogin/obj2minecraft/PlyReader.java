@@ -0,0 +1,377 @@
+package com.garhoogin.obj2minecraft;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * This class contains methods for reading a binary PLY file. The header is
+ * read as text, then the vertex and face elements are read straight out of a
+ * memory mapping of the file. Texture coordinates may be given per vertex
+ * ({@code u}/{@code v}, {@code s}/{@code t} or {@code texture_u}/
+ * {@code texture_v}) or per face corner (a {@code texcoord} list), and
+ * texture images by {@code comment TextureFile} lines, selected per face by a
+ * {@code texnumber} property. Polygons are split into triangle fans.
+ *
+ * @author Declan Moore
+ */
+final class PlyReader {
+
+    //property types, by size and kind
+    private static final int INT8 = 0, UINT8 = 1, INT16 = 2, UINT16 = 3;
+    private static final int INT32 = 4, UINT32 = 5, FLOAT32 = 6, FLOAT64 = 7;
+    private static final String[][] TYPE_NAMES = {
+        {"char", "int8"}, {"uchar", "uint8"}, {"short", "int16"}, {"ushort", "uint16"},
+        {"int", "int32"}, {"uint", "uint32"}, {"float", "float32"}, {"double", "float64"}
+    };
+    private static final int[] TYPE_SIZES = {1, 1, 2, 2, 4, 4, 4, 8};
+
+    private PlyReader(){
+    }
+
+    /**
+     * A property of an element. List properties have a count type.
+     */
+    private static final class Property{
+        final String name;
+        final int type;
+        final int countType;
+
+        Property(String name, int type, int countType){
+            this.name = name;
+            this.type = type;
+            this.countType = countType;
+        }
+
+        boolean isList(){
+            return countType >= 0;
+        }
+    }
+
+    /**
+     * An element of the file, with its count and properties.
+     */
+    private static final class Element{
+        final String name;
+        final int count;
+        final List<Property> properties = new ArrayList<>();
+
+        Element(String name, int count){
+            this.name = name;
+            this.count = count;
+        }
+
+        /**
+         * Get the size of one instance of this element, or -1 if it holds a
+         * list.
+         */
+        int getStride(){
+            int stride = 0;
+            for(Property p : properties){
+                if(p.isList()) return -1;
+                stride += TYPE_SIZES[p.type];
+            }
+            return stride;
+        }
+
+        int indexOf(String... names){
+            for(String name : names){
+                for(int i = 0; i < properties.size(); i++){
+                    if(properties.get(i).name.equals(name)) return i;
+                }
+            }
+            return -1;
+        }
+    }
+
+
+    /**
+     * Read a binary PLY file and define in {@code textures} the texture
+     * images it names.
+     *
+     * @param f            the PLY file
+     * @param textures     the texture loader to define textures in
+     * @return             the mesh read from the file
+     * @throws IOException if the file could not be read, or is not a binary
+     *                     PLY file
+     */
+    static Mesh read(File f, TextureLoader textures) throws IOException{
+        try(FileChannel channel = FileChannel.open(f.toPath(), StandardOpenOption.READ)){
+            long size = channel.size();
+            if(size > Integer.MAX_VALUE) throw new IOException("PLY file too large: " + f);
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            return read(f, buffer, textures);
+        }
+    }
+
+    private static Mesh read(File f, ByteBuffer buffer, TextureLoader textures) throws IOException{
+        List<Element> elements = new ArrayList<>();
+        List<String> textureFiles = new ArrayList<>();
+        int pos = 0;
+        boolean first = true;
+        while(true){
+            int lineEnd = pos;
+            while(lineEnd < buffer.limit() && buffer.get(lineEnd) != '\n') lineEnd++;
+            if(lineEnd >= buffer.limit()) throw new IOException("Unterminated PLY header: " + f);
+            byte[] bytes = new byte[lineEnd - pos];
+            ByteBuffer line = buffer.duplicate();
+            line.position(pos);
+            line.get(bytes);
+            pos = lineEnd + 1;
+            String[] args = new String(bytes, StandardCharsets.US_ASCII).trim().split("\\s+");
+
+            if(first){
+                if(!args[0].equals("ply")) throw new IOException("Not a PLY file: " + f);
+                first = false;
+            } else if(args[0].equals("format")){
+                if(args.length < 2) throw new IOException("Bad PLY format line: " + f);
+                if(args[1].equals("binary_little_endian")) buffer.order(ByteOrder.LITTLE_ENDIAN);
+                else if(args[1].equals("binary_big_endian")) buffer.order(ByteOrder.BIG_ENDIAN);
+                else throw new IOException("Only binary PLY files are supported: " + f);
+            } else if(args[0].equals("comment")){
+                if(args.length >= 3 && args[1].equals("TextureFile")) textureFiles.add(args[2]);
+            } else if(args[0].equals("element")){
+                if(args.length < 3) throw new IOException("Bad PLY element line: " + f);
+                elements.add(new Element(args[1], Integer.parseInt(args[2])));
+            } else if(args[0].equals("property")){
+                if(elements.isEmpty()) throw new IOException("PLY property outside an element: " + f);
+                Property p;
+                if(args.length >= 5 && args[1].equals("list")){
+                    p = new Property(args[4], getType(args[3]), getType(args[2]));
+                } else if(args.length >= 3){
+                    p = new Property(args[2], getType(args[1]), -1);
+                } else {
+                    throw new IOException("Bad PLY property line: " + f);
+                }
+                elements.get(elements.size() - 1).properties.add(p);
+            } else if(args[0].equals("end_header")){
+                break;
+            }
+        }
+
+        float[] positions = new float[0];
+        float[] vertexTexCoords = null;
+        FloatList cornerTexCoords = null;
+        IntList indices = new IntList();
+        IntList texIndices = new IntList();
+        IntList materials = new IntList();
+        for(Element element : elements){
+            if(element.name.equals("vertex")){
+                int[] xyz = {element.indexOf("x"), element.indexOf("y"), element.indexOf("z")};
+                if(xyz[0] < 0 || xyz[1] < 0 || xyz[2] < 0) throw new IOException("PLY vertices have no position: " + f);
+                int u = element.indexOf("u", "s", "texture_u", "texture_s");
+                int v = element.indexOf("v", "t", "texture_v", "texture_t");
+                positions = new float[element.count * 3];
+                if(u >= 0 && v >= 0) vertexTexCoords = new float[element.count * 2];
+                pos = readVertices(buffer, pos, element, xyz, u, v, positions, vertexTexCoords);
+            } else if(element.name.equals("face")){
+                int vertexIndices = element.indexOf("vertex_indices", "vertex_index");
+                if(vertexIndices < 0 || !element.properties.get(vertexIndices).isList()){
+                    throw new IOException("PLY faces have no vertex indices: " + f);
+                }
+                int texcoord = element.indexOf("texcoord");
+                int texnumber = element.indexOf("texnumber");
+                if(texcoord >= 0 && element.properties.get(texcoord).isList()) cornerTexCoords = new FloatList();
+                else texcoord = -1;
+                pos = readFaces(buffer, pos, element, vertexIndices, texcoord, texnumber,
+                        vertexTexCoords != null, indices, texIndices, cornerTexCoords, materials);
+            } else {
+                pos = skipElement(buffer, pos, element);
+            }
+        }
+
+        int nVertices = positions.length / 3;
+        for(int i = 0; i < indices.size(); i++){
+            int index = indices.get(i);
+            if(index < 0 || index >= nVertices) throw new IOException("Invalid vertex index in PLY file: " + f);
+        }
+
+        float[] texCoords = cornerTexCoords != null ? cornerTexCoords.toArray()
+                : vertexTexCoords != null ? vertexTexCoords : new float[0];
+        String[] materialNames = textureFiles.toArray(new String[0]);
+        String dir = f.getAbsoluteFile().getParent();
+        for(String name : materialNames){
+            textures.define(name, new File(dir + "/" + name));
+        }
+        short[] faceMaterials = new short[materials.size()];
+        for(int i = 0; i < faceMaterials.length; i++){
+            int material = materials.get(i);
+            faceMaterials[i] = (short) (material >= 0 && material < materialNames.length ? material : -1);
+        }
+        return new Mesh(positions, texCoords, indices.toArray(), texIndices.toArray(), faceMaterials, materialNames);
+    }
+
+    private static int readVertices(ByteBuffer buffer, int pos, Element element, int[] xyz, int u, int v,
+            float[] positions, float[] texCoords) throws IOException{
+        int stride = element.getStride();
+        if(stride < 0){
+            //vertices with list properties have no fixed layout
+            int[] offsets = new int[element.properties.size()];
+            for(int i = 0; i < element.count; i++){
+                pos = walk(buffer, pos, element, offsets);
+                for(int j = 0; j < 3; j++){
+                    positions[i * 3 + j] = getFloat(buffer, offsets[xyz[j]], element.properties.get(xyz[j]).type);
+                }
+                if(texCoords != null){
+                    texCoords[i * 2] = getFloat(buffer, offsets[u], element.properties.get(u).type);
+                    texCoords[i * 2 + 1] = getFloat(buffer, offsets[v], element.properties.get(v).type);
+                }
+            }
+            return pos;
+        }
+
+        int[] offsets = new int[element.properties.size()];
+        for(int i = 1; i < offsets.length; i++){
+            offsets[i] = offsets[i - 1] + TYPE_SIZES[element.properties.get(i - 1).type];
+        }
+        checkRange(buffer, pos, (long) stride * element.count);
+        int xType = element.properties.get(xyz[0]).type;
+        boolean allFloat = xType == FLOAT32 && element.properties.get(xyz[1]).type == FLOAT32
+                && element.properties.get(xyz[2]).type == FLOAT32;
+        for(int i = 0; i < element.count; i++){
+            int base = pos + i * stride;
+            if(allFloat){
+                positions[i * 3] = buffer.getFloat(base + offsets[xyz[0]]);
+                positions[i * 3 + 1] = buffer.getFloat(base + offsets[xyz[1]]);
+                positions[i * 3 + 2] = buffer.getFloat(base + offsets[xyz[2]]);
+            } else {
+                for(int j = 0; j < 3; j++){
+                    positions[i * 3 + j] = getFloat(buffer, base + offsets[xyz[j]], element.properties.get(xyz[j]).type);
+                }
+            }
+            if(texCoords != null){
+                texCoords[i * 2] = getFloat(buffer, base + offsets[u], element.properties.get(u).type);
+                texCoords[i * 2 + 1] = getFloat(buffer, base + offsets[v], element.properties.get(v).type);
+            }
+        }
+        return pos + stride * element.count;
+    }
+
+    private static int readFaces(ByteBuffer buffer, int pos, Element element, int vertexIndices, int texcoord,
+            int texnumber, boolean vertexTexCoords, IntList indices, IntList texIndices, FloatList cornerTexCoords,
+            IntList materials) throws IOException{
+        int[] offsets = new int[element.properties.size()];
+        Property indexProperty = element.properties.get(vertexIndices);
+        int indexSize = TYPE_SIZES[indexProperty.type];
+        int countSize = TYPE_SIZES[indexProperty.countType];
+        for(int i = 0; i < element.count; i++){
+            pos = walk(buffer, pos, element, offsets);
+            int material = texnumber < 0 ? 0 : (int) getFloat(buffer, offsets[texnumber], element.properties.get(texnumber).type);
+            int listStart = offsets[vertexIndices];
+            int n = getInt(buffer, listStart, indexProperty.countType);
+            int first = listStart + countSize;
+
+            int texBase = -1;
+            if(texcoord >= 0){
+                Property p = element.properties.get(texcoord);
+                int count = getInt(buffer, offsets[texcoord], p.countType);
+                //two coordinates per corner
+                if(count == n * 2){
+                    texBase = cornerTexCoords.size() / 2;
+                    int start = offsets[texcoord] + TYPE_SIZES[p.countType];
+                    for(int j = 0; j < count; j++){
+                        cornerTexCoords.add(getFloat(buffer, start + j * TYPE_SIZES[p.type], p.type));
+                    }
+                }
+            }
+
+            //as in OBJ files, faces without texture coordinates have no
+            //material
+            if(texBase < 0 && !(vertexTexCoords && texcoord < 0)) material = -1;
+
+            int v0 = getInt(buffer, first, indexProperty.type);
+            for(int j = 2; j < n; j++){
+                int v1 = getInt(buffer, first + (j - 1) * indexSize, indexProperty.type);
+                int v2 = getInt(buffer, first + j * indexSize, indexProperty.type);
+                indices.add(v0, v1);
+                indices.add(v2);
+                if(texBase >= 0){
+                    texIndices.add(texBase, texBase + j - 1);
+                    texIndices.add(texBase + j);
+                } else if(vertexTexCoords && texcoord < 0){
+                    texIndices.add(v0, v1);
+                    texIndices.add(v2);
+                } else {
+                    texIndices.add(-1, -1);
+                    texIndices.add(-1);
+                }
+                materials.add(material);
+            }
+        }
+        return pos;
+    }
+
+    private static int skipElement(ByteBuffer buffer, int pos, Element element) throws IOException{
+        int stride = element.getStride();
+        if(stride >= 0){
+            checkRange(buffer, pos, (long) stride * element.count);
+            return pos + stride * element.count;
+        }
+        int[] offsets = new int[element.properties.size()];
+        for(int i = 0; i < element.count; i++){
+            pos = walk(buffer, pos, element, offsets);
+        }
+        return pos;
+    }
+
+    /**
+     * Find the offset of each property of one instance of an element, and
+     * return the offset after it.
+     */
+    private static int walk(ByteBuffer buffer, int pos, Element element, int[] offsets) throws IOException{
+        int start = pos;
+        for(int i = 0; i < offsets.length; i++){
+            Property p = element.properties.get(i);
+            offsets[i] = pos;
+            if(p.isList()){
+                checkRange(buffer, pos, TYPE_SIZES[p.countType]);
+                int count = getInt(buffer, pos, p.countType);
+                if(count < 0) throw new IOException("Negative list length in PLY file");
+                pos += TYPE_SIZES[p.countType] + count * TYPE_SIZES[p.type];
+            } else {
+                pos += TYPE_SIZES[p.type];
+            }
+        }
+        checkRange(buffer, start, pos - start);
+        return pos;
+    }
+
+    private static void checkRange(ByteBuffer buffer, int pos, long length) throws IOException{
+        if(pos + length > buffer.limit()) throw new IOException("PLY file is truncated");
+    }
+
+    private static int getType(String name) throws IOException{
+        for(int i = 0; i < TYPE_NAMES.length; i++){
+            if(Arrays.asList(TYPE_NAMES[i]).contains(name)) return i;
+        }
+        throw new IOException("Unknown PLY property type: " + name);
+    }
+
+    private static int getInt(ByteBuffer buffer, int offset, int type){
+        switch(type){
+            case INT8: return buffer.get(offset);
+            case UINT8: return buffer.get(offset) & 0xFF;
+            case INT16: return buffer.getShort(offset);
+            case UINT16: return buffer.getShort(offset) & 0xFFFF;
+            case INT32: case UINT32: return buffer.getInt(offset);
+            case FLOAT32: return (int) buffer.getFloat(offset);
+            default: return (int) buffer.getDouble(offset);
+        }
+    }
+
+    private static float getFloat(ByteBuffer buffer, int offset, int type){
+        switch(type){
+            case FLOAT32: return buffer.getFloat(offset);
+            case FLOAT64: return (float) buffer.getDouble(offset);
+            default: return getInt(buffer, offset, type);
+        }
+    }
+
+}
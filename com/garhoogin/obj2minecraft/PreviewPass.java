@@ -0,0 +1,113 @@
+package com.garhoogin.obj2minecraft;
+
+/**
+ * The {@code PreviewPass} class holds the result of a quick conversion at a
+ * fraction of the requested height, made so there is something to look at
+ * within seconds. It records every block any face touched at that coarse
+ * resolution, whether or not the block was opaque enough to keep, and the
+ * full conversion that follows uses it to skip the tiles no face can reach.
+ * <p>
+ * This is turned on by setting the {@code obj2mc.preview} system property to
+ * {@code true}, for a quarter of the height, or to the number to divide the
+ * height by.
+ *
+ * @author Declan Moore
+ */
+final class PreviewPass {
+
+    /**
+     * the system property giving the number to divide the height by
+     */
+    static final String PREVIEW_PROPERTY = "obj2mc.preview";
+
+    private final float cubeSize;
+    private final int cubesX;
+    private final int cubesY;
+    private final int cubesZ;
+    private final VoxelGrid occupancy;
+
+
+    /**
+     * Create a new, empty instance of {@code PreviewPass}.
+     *
+     * @param cubeSize the size of a coarse block in model space
+     * @param cubesX   the number of coarse blocks in the X direction
+     * @param cubesY   the number of coarse blocks in the Y direction
+     * @param cubesZ   the number of coarse blocks in the Z direction
+     */
+    PreviewPass(float cubeSize, int cubesX, int cubesY, int cubesZ){
+        this.cubeSize = cubeSize;
+        this.cubesX = cubesX;
+        this.cubesY = cubesY;
+        this.cubesZ = cubesZ;
+        //layers run from -1 to cubesY
+        this.occupancy = new VoxelGrid(cubesX, cubesY + 2, cubesZ);
+    }
+
+
+    /**
+     * Get the number set by the {@code obj2mc.preview} property.
+     *
+     * @return the number to divide the height by, or 0 if there is no
+     *         preview
+     */
+    static int getDivisor(){
+        String value = System.getProperty(PREVIEW_PROPERTY);
+        if(value == null || value.isEmpty() || value.equalsIgnoreCase("false")) return 0;
+        if(value.equalsIgnoreCase("true")) return 4;
+        try{
+            int divisor = Integer.parseInt(value);
+            return divisor > 1 ? divisor : 0;
+        } catch(NumberFormatException ex){
+            System.err.println("Ignoring bad " + PREVIEW_PROPERTY + " value: " + value);
+            return 0;
+        }
+    }
+
+
+    /**
+     * Get the coarse blocks touched by any face. Block {@code (x, y, z)} is
+     * stored at {@code (x, y + 1, z)}, since layers start at -1.
+     *
+     * @return the set of touched blocks
+     */
+    VoxelGrid getOccupancy(){
+        return occupancy;
+    }
+
+
+    /**
+     * Check whether any face may overlap a box of blocks at full resolution.
+     * A face that overlaps a fine block has a point in that block's test
+     * box, and that point is in the test box of some coarse block, which was
+     * then recorded. The coarse blocks checked are widened by one on each
+     * side so rounding can't drop one, and a box that reaches past the
+     * coarse volume is always assumed reachable.
+     *
+     * @param box      the lowest x, y, z and highest x, y, z fine block
+     * @param cubeSize the size of a fine block in model space
+     * @return         false only if no face can overlap a block of the box
+     */
+    boolean mayReach(int[] box, float cubeSize){
+        int[] lo = new int[3], hi = new int[3];
+        int[] limit = {cubesX - 1, cubesY, cubesZ - 1};
+        for(int axis = 0; axis < 3; axis++){
+            //a block's test box spans (index + 0.5) to (index + 0.5 + 1.2)
+            //blocks from the smallest coordinate, at either resolution
+            float from = (box[axis] + 0.5f) * cubeSize / this.cubeSize;
+            float to = (box[3 + axis] + 0.5f + Main.TEST_BOX_SCALE) * cubeSize / this.cubeSize;
+            lo[axis] = (int) Math.floor(from - 0.5f - Main.TEST_BOX_SCALE) - 1;
+            hi[axis] = (int) Math.ceil(to - 0.5f) + 1;
+            if(lo[axis] < (axis == 1 ? -1 : 0) || hi[axis] > limit[axis]) return true;
+        }
+        for(int x = lo[0]; x <= hi[0]; x++){
+            for(int y = lo[1]; y <= hi[1]; y++){
+                for(int z = lo[2]; z <= hi[2]; z++){
+                    if(occupancy.contains(x, y + 1, z)) return true;
+                }
+            }
+        }
+        return false;
+    }
+
+}
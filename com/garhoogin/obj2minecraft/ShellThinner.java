@@ -0,0 +1,162 @@
+package com.garhoogin.obj2minecraft;
+
+import com.garhoogin.obj2minecraft.world.World;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * The {@code ShellThinner} class removes the blocks of a voxelized model
+ * that can't be seen. The overlap test uses a box a bit larger than a block,
+ * so surfaces usually come out two or three blocks thick, and the blocks in
+ * the middle are hidden by their neighbors. A block is removed when all of
+ * its neighbors are opaque: either the six that share a face with it, which
+ * leaves the thinnest shell with no gaps through it, or all twenty-six
+ * around it, which leaves a shell with no gaps even between corners.
+ * Translucent blocks don't hide anything, and nothing past the edge of the
+ * volume does either, so every block that shows is kept.
+ * <p>
+ * The columns of the volume are kept as bitsets, so a whole column is
+ * checked against its neighbors in a few word operations, and strips of
+ * columns are checked on a pool of threads.
+ * <p>
+ * This is turned on by setting the {@code obj2mc.thin} system property to
+ * {@code true} or {@code 6} for face neighbors, or {@code 26} for all
+ * neighbors.
+ *
+ * @author Declan Moore
+ */
+final class ShellThinner {
+
+    /**
+     * the system property giving the neighbors that must be opaque
+     */
+    static final String THIN_PROPERTY = "obj2mc.thin";
+
+    private final int sizeX;
+    private final int sizeZ;
+    private final boolean corners;
+
+
+    /**
+     * Create a new instance of {@code ShellThinner}.
+     *
+     * @param sizeX     the number of columns in the X direction
+     * @param sizeZ     the number of columns in the Z direction
+     * @param neighbors the neighbors that must be opaque, 6 or 26
+     */
+    ShellThinner(int sizeX, int sizeZ, int neighbors){
+        this.sizeX = sizeX;
+        this.sizeZ = sizeZ;
+        this.corners = neighbors == 26;
+    }
+
+
+    /**
+     * Get the number of neighbors set by the {@code obj2mc.thin} property.
+     *
+     * @return 6 or 26, or 0 if thinning is off
+     */
+    static int getNeighbors(){
+        String value = System.getProperty(THIN_PROPERTY);
+        if(value == null || value.isEmpty() || value.equalsIgnoreCase("false")) return 0;
+        if(value.equalsIgnoreCase("true") || value.equals("6")) return 6;
+        if(value.equals("26")) return 26;
+        System.err.println("Ignoring bad " + THIN_PROPERTY + " value: " + value);
+        return 0;
+    }
+
+
+    /**
+     * Remove the hidden blocks of a world.
+     *
+     * @param world       the world
+     * @param materialSet the material set the blocks were matched with
+     * @return            the number of blocks removed
+     */
+    int thin(World world, MaterialSet materialSet){
+        BitSet[] opaque = world.getColumns(sizeX, sizeZ, name -> !name.equals("air") && !materialSet.isTranslucentBlock(name));
+        int height = 1;
+        for(BitSet column : opaque){
+            if(column != null) height = Math.max(height, column.length());
+        }
+        int words = (height + 63) / 64;
+        long[][] columns = new long[opaque.length][];
+        for(int i = 0; i < opaque.length; i++){
+            if(opaque[i] != null) columns[i] = Arrays.copyOf(opaque[i].toLongArray(), words);
+        }
+
+        BitSet[] hidden = new BitSet[columns.length];
+        int stripBlocks = ConverterGUI.TILE_BLOCKS;
+        List<ForkJoinTask<?>> tasks = new ArrayList<>();
+        for(int startX = 0; startX < sizeX; startX += stripBlocks){
+            int from = startX, to = Math.min(startX + stripBlocks, sizeX);
+            tasks.add(ForkJoinTask.adapt(() -> findHidden(columns, hidden, from, to, words)));
+        }
+        ForkJoinPool pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+        try{
+            pool.invoke(ForkJoinTask.adapt(() -> ForkJoinTask.invokeAll(tasks)));
+        } finally {
+            pool.shutdown();
+        }
+        return world.removeBlocks(hidden, sizeX, sizeZ);
+    }
+
+    /**
+     * Find the hidden blocks of the columns from {@code fromX} up to but not
+     * including {@code toX}.
+     */
+    private void findHidden(long[][] columns, BitSet[] hidden, int fromX, int toX, int words){
+        long[] mask = new long[words];
+        for(int x = fromX; x < toX; x++){
+            for(int z = 0; z < sizeZ; z++){
+                long[] column = columns[x * sizeZ + z];
+                if(column == null) continue;
+                //a block needs the blocks above and below it
+                boolean any = false;
+                for(int w = 0; w < words; w++){
+                    mask[w] = column[w] & up(column, w) & down(column, w);
+                    any |= mask[w] != 0;
+                }
+                for(int dx = -1; dx <= 1 && any; dx++){
+                    for(int dz = -1; dz <= 1 && any; dz++){
+                        if(dx == 0 && dz == 0) continue;
+                        if(!corners && dx != 0 && dz != 0) continue;
+                        int nx = x + dx, nz = z + dz;
+                        long[] neighbor = nx < 0 || nx >= sizeX || nz < 0 || nz >= sizeZ ? null : columns[nx * sizeZ + nz];
+                        any = false;
+                        for(int w = 0; w < words; w++){
+                            if(neighbor == null){
+                                mask[w] = 0;
+                            } else {
+                                mask[w] &= corners ? neighbor[w] & up(neighbor, w) & down(neighbor, w) : neighbor[w];
+                            }
+                            any |= mask[w] != 0;
+                        }
+                    }
+                }
+                if(any) hidden[x * sizeZ + z] = BitSet.valueOf(mask);
+            }
+        }
+    }
+
+    /**
+     * Get a word of a column with each bit set if the block above is set.
+     */
+    private static long up(long[] column, int w){
+        long next = w + 1 < column.length ? column[w + 1] : 0;
+        return (column[w] >>> 1) | (next << 63);
+    }
+
+    /**
+     * Get a word of a column with each bit set if the block below is set.
+     */
+    private static long down(long[] column, int w){
+        long prev = w > 0 ? column[w - 1] : 0;
+        return (column[w] << 1) | (prev >>> 63);
+    }
+
+}
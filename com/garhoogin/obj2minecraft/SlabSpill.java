@@ -0,0 +1,416 @@
+package com.garhoogin.obj2minecraft;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * The {@code SlabSpill} class reads an OBJ file without ever holding all of
+ * its faces in memory. The file is read twice: the first pass streams the
+ * vertices and texture coordinates into spill files of their own and reads
+ * the materials, which gives the size of the model. The second pass streams
+ * every face into a spill file on disk for each horizontal slab of
+ * {@link #SLAB_LAYERS} layers that it can be seen from, looking up its
+ * vertices in the vertex files, which are mapped into memory rather than read
+ * onto the heap. Each slab can then be loaded as its own {@code Mesh}, so the
+ * heap only needs to hold the slabs being voxelized at the time.
+ * <p>
+ * This mode is turned on with the {@code obj2mc.outOfCore} system property.
+ * Spill files are written to the directory given by {@code obj2mc.spillDir},
+ * or the system's temporary directory, and deleted when the spill is closed.
+ *
+ * @author Declan Moore
+ */
+public class SlabSpill implements Closeable {
+
+    /**
+     * the system property that turns on out-of-core conversion
+     */
+    public static final String OUT_OF_CORE_PROPERTY = "obj2mc.outOfCore";
+
+    /**
+     * the system property naming a directory to write spill files to
+     */
+    public static final String SPILL_DIR_PROPERTY = "obj2mc.spillDir";
+
+    /**
+     * the number of layers in one slab
+     */
+    public static final int SLAB_LAYERS = 16;
+
+    //9 position floats, 6 texture coordinate floats and a material ID
+    private static final int RECORD_SIZE = 64;
+
+    //vertex files are mapped in windows of this many bytes, a multiple of
+    //the size of a float
+    private static final int WINDOW_BITS = 30;
+
+    private final File obj;
+    private final String[] materialNames;
+    private final boolean useMaterials;
+    private final Vec3 min;
+    private final Vec3 max;
+    private final int nPositions;
+    private final int nTexCoords;
+    private Path directory;
+    private File positionFile;
+    private File texCoordFile;
+    private File[] slabFiles;
+    private int[] slabFaces;
+    private int faceCount;
+
+
+    /**
+     * Create a new instance of {@code SlabSpill}, spilling the vertices and
+     * reading the materials of an OBJ file. Decoding of the materials'
+     * textures is started in the background.
+     *
+     * @param path         the path of the OBJ file
+     * @param textures     the texture loader to define textures in
+     * @throws IOException if the file could not be read or a spill file
+     *                     could not be written
+     */
+    public SlabSpill(String path, TextureLoader textures) throws IOException{
+        this.obj = new File(path);
+        String dir = System.getProperty(SPILL_DIR_PROPERTY);
+        this.directory = Files.createTempDirectory(dir == null ? Paths.get(System.getProperty("java.io.tmpdir")) : Paths.get(dir), "obj2mc");
+        this.positionFile = directory.resolve("positions.bin").toFile();
+        this.texCoordFile = directory.resolve("texcoords.bin").toFile();
+        try{
+            ObjParser parser = new ObjParser();
+            parser.skipFaces();
+            VertexSpill vertices = new VertexSpill();
+            try(DataOutputStream positionOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(positionFile), 1 << 16));
+                    DataOutputStream texCoordOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(texCoordFile), 1 << 16))){
+                vertices.positionOut = positionOut;
+                vertices.texCoordOut = texCoordOut;
+                parser.streamVertices(vertices);
+                ObjReader.parseSequential(obj, parser);
+            } catch(UncheckedIOException ex){
+                throw ex.getCause();
+            }
+            this.nPositions = vertices.nPositions;
+            this.nTexCoords = vertices.nTexCoords;
+            this.materialNames = parser.materialNames.toArray(new String[0]);
+            ObjReader.readMtlLibs(obj, parser.mtlLibs, textures);
+            this.useMaterials = !textures.isEmpty();
+            if(useMaterials) textures.start(parser.materialNames);
+
+            if(nPositions == 0){
+                this.min = new Vec3(0, 0, 0);
+                this.max = new Vec3(0, 0, 0);
+            } else {
+                this.min = new Vec3(vertices.minX, vertices.minY, vertices.minZ);
+                this.max = new Vec3(vertices.maxX, vertices.maxY, vertices.maxZ);
+            }
+        } catch(IOException | RuntimeException ex){
+            close();
+            throw ex;
+        }
+    }
+
+    /**
+     * Writes streamed vertices and texture coordinates to their spill files,
+     * keeping only their counts and the bounding box of the vertices.
+     */
+    private static final class VertexSpill implements ObjParser.VertexSink{
+
+        DataOutputStream positionOut;
+        DataOutputStream texCoordOut;
+        int nPositions;
+        int nTexCoords;
+        float minX = Float.POSITIVE_INFINITY, minY = Float.POSITIVE_INFINITY, minZ = Float.POSITIVE_INFINITY;
+        float maxX = Float.NEGATIVE_INFINITY, maxY = Float.NEGATIVE_INFINITY, maxZ = Float.NEGATIVE_INFINITY;
+
+        @Override
+        public void vertex(float x, float y, float z){
+            minX = Math.min(minX, x);
+            minY = Math.min(minY, y);
+            minZ = Math.min(minZ, z);
+            maxX = Math.max(maxX, x);
+            maxY = Math.max(maxY, y);
+            maxZ = Math.max(maxZ, z);
+            try{
+                positionOut.writeFloat(x);
+                positionOut.writeFloat(y);
+                positionOut.writeFloat(z);
+            } catch(IOException ex){
+                throw new UncheckedIOException(ex);
+            }
+            nPositions++;
+        }
+
+        @Override
+        public void texCoord(float u, float v){
+            try{
+                texCoordOut.writeFloat(u);
+                texCoordOut.writeFloat(v);
+            } catch(IOException ex){
+                throw new UncheckedIOException(ex);
+            }
+            nTexCoords++;
+        }
+
+    }
+
+    /**
+     * A spilled file of floats mapped into memory, in windows so that it may
+     * be larger than a single mapping allows.
+     */
+    private static final class MappedFloats{
+
+        private final MappedByteBuffer[] windows;
+
+        MappedFloats(File f) throws IOException{
+            try(FileChannel channel = FileChannel.open(f.toPath(), StandardOpenOption.READ)){
+                long size = channel.size();
+                long windowSize = 1L << WINDOW_BITS;
+                windows = new MappedByteBuffer[(int) ((size + windowSize - 1) >> WINDOW_BITS)];
+                for(int i = 0; i < windows.length; i++){
+                    long start = (long) i << WINDOW_BITS;
+                    windows[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(windowSize, size - start));
+                }
+            }
+        }
+
+        float get(long index){
+            long offset = index * 4;
+            return windows[(int) (offset >> WINDOW_BITS)].getFloat((int) (offset & ((1L << WINDOW_BITS) - 1)));
+        }
+
+    }
+
+
+    /**
+     * Check whether out-of-core conversion is turned on.
+     *
+     * @return true if the {@code obj2mc.outOfCore} property is set to true
+     */
+    public static boolean isEnabled(){
+        return Boolean.getBoolean(OUT_OF_CORE_PROPERTY);
+    }
+
+
+    /**
+     * Get the lower coordinate of the bounding box of the model's vertices.
+     *
+     * @return the lower coordinate of the model
+     */
+    public Vec3 getMinimum(){
+        return min;
+    }
+
+
+    /**
+     * Get the upper coordinate of the bounding box of the model's vertices.
+     *
+     * @return the upper coordinate of the model
+     */
+    public Vec3 getMaximum(){
+        return max;
+    }
+
+
+    /**
+     * Group every vertex of the model into clusters for decimation, so that
+     * the slabs can be decimated separately and still line up. This must be
+     * called before the model is spilled.
+     *
+     * @param origin       the corner of the clustering grid
+     * @param cellSize     the size of a grid cell in model space
+     * @return             the finished clusters
+     * @throws IOException if the vertex file could not be read
+     */
+    MeshDecimator.Clusters clusterVertices(Vec3 origin, float cellSize) throws IOException{
+        MappedFloats positions = new MappedFloats(positionFile);
+        MeshDecimator.Clusters clusters = new MeshDecimator.Clusters(origin, cellSize);
+        for(long i = 0; i < nPositions * 3L; i += 3){
+            clusters.add(positions.get(i), positions.get(i + 1), positions.get(i + 2));
+        }
+        clusters.finish();
+        return clusters;
+    }
+
+
+    /**
+     * Stream every face of the model into the spill files of the slabs it can
+     * be seen from. A face belongs to a slab under the same test a
+     * {@code LayererThread} uses to pick its faces. The vertex files are
+     * deleted afterwards.
+     *
+     * @param cubeSize     the size of a block in model space
+     * @param min          the smallest coordinate in the model
+     * @param cubesY       the number of cubes in the Y direction
+     * @throws IOException if the model could not be read or a spill file
+     *                     could not be written
+     */
+    public void spill(float cubeSize, Vec3 min, int cubesY) throws IOException{
+        int nSlabs = (cubesY + SLAB_LAYERS) / SLAB_LAYERS;
+        MappedFloats positions = new MappedFloats(positionFile);
+        MappedFloats texCoords = new MappedFloats(texCoordFile);
+        this.slabFiles = new File[nSlabs];
+        this.slabFaces = new int[nSlabs];
+        DataOutputStream[] out = new DataOutputStream[nSlabs];
+        try{
+            for(int i = 0; i < nSlabs; i++){
+                slabFiles[i] = directory.resolve("slab" + i + ".bin").toFile();
+                out[i] = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(slabFiles[i]), 1 << 16));
+            }
+
+            float minY = min.y;
+            ObjParser parser = new ObjParser();
+            parser.streamFaces((v1, vt1, v2, vt2, v3, vt3, material) -> {
+                if(v1 < 0 || v2 < 0 || v3 < 0 || v1 >= nPositions || v2 >= nPositions || v3 >= nPositions
+                        || vt1 >= nTexCoords || vt2 >= nTexCoords || vt3 >= nTexCoords){
+                    throw new UncheckedIOException(new IOException("Invalid vertex index in OBJ file"));
+                }
+                faceCount++;
+                float y1 = positions.get(v1 * 3L + 1), y2 = positions.get(v2 * 3L + 1), y3 = positions.get(v3 * 3L + 1);
+                //the layers a LayererThread would find the face can reach;
+                //slab 0 also holds layer -1
+                int firstLayer = Main.getFirstBlock(Math.min(Math.min(y1, y2), y3), cubeSize, minY);
+                int lastLayer = Main.getLastBlock(Math.max(Math.max(y1, y2), y3), cubeSize, minY);
+                if(lastLayer < -1 || firstLayer > cubesY) return;
+                int first = Math.max(firstLayer, 0) / SLAB_LAYERS;
+                int last = Math.min(Math.max(lastLayer, 0) / SLAB_LAYERS, nSlabs - 1);
+                for(int i = first; i <= last; i++){
+                    try{
+                        writeFace(out[i], positions, texCoords, v1, vt1, v2, vt2, v3, vt3, material);
+                    } catch(IOException ex){
+                        throw new UncheckedIOException(ex);
+                    }
+                    slabFaces[i]++;
+                }
+            });
+            ObjReader.parseSequential(obj, parser);
+        } catch(UncheckedIOException ex){
+            throw ex.getCause();
+        } finally {
+            for(DataOutputStream stream : out){
+                if(stream != null) stream.close();
+            }
+        }
+
+        //the slabs hold everything needed from here on
+        positionFile.delete();
+        texCoordFile.delete();
+    }
+
+    private void writeFace(DataOutputStream out, MappedFloats positions, MappedFloats texCoords,
+            int v1, int vt1, int v2, int vt2, int v3, int vt3, int material) throws IOException{
+        boolean textured = vt1 >= 0 && vt2 >= 0 && vt3 >= 0;
+        writePosition(out, positions, v1);
+        writePosition(out, positions, v2);
+        writePosition(out, positions, v3);
+        writeTexCoord(out, texCoords, textured ? vt1 : -1);
+        writeTexCoord(out, texCoords, textured ? vt2 : -1);
+        writeTexCoord(out, texCoords, textured ? vt3 : -1);
+        out.writeInt(textured && useMaterials ? Math.max(material, -1) : -1);
+    }
+
+    private static void writePosition(DataOutputStream out, MappedFloats positions, int v) throws IOException{
+        out.writeFloat(positions.get(v * 3L));
+        out.writeFloat(positions.get(v * 3L + 1));
+        out.writeFloat(positions.get(v * 3L + 2));
+    }
+
+    private static void writeTexCoord(DataOutputStream out, MappedFloats texCoords, int vt) throws IOException{
+        out.writeFloat(vt < 0 ? 0.0f : texCoords.get(vt * 2L));
+        out.writeFloat(vt < 0 ? 0.0f : texCoords.get(vt * 2L + 1));
+    }
+
+
+    /**
+     * Get the number of slabs.
+     *
+     * @return the number of slabs
+     */
+    public int getSlabCount(){
+        return slabFiles.length;
+    }
+
+
+    /**
+     * Get the number of faces in the model. A face spilled to several slabs
+     * counts once.
+     *
+     * @return the number of faces
+     */
+    public int getFaceCount(){
+        return faceCount;
+    }
+
+
+    /**
+     * Get the number of faces spilled to a slab.
+     *
+     * @param slab the slab index
+     * @return     the number of faces in the slab
+     */
+    public int getSlabFaceCount(int slab){
+        return slabFaces[slab];
+    }
+
+
+    /**
+     * Load the faces of one slab as a mesh. Faces in the returned mesh don't
+     * share vertices.
+     *
+     * @param slab         the slab index
+     * @return             a mesh holding the faces of the slab
+     * @throws IOException if the spill file could not be read
+     */
+    public Mesh loadSlab(int slab) throws IOException{
+        int nFaces = slabFaces[slab];
+        float[] slabPositions = new float[nFaces * 9];
+        float[] slabTexCoords = new float[nFaces * 6];
+        int[] indices = new int[nFaces * 3];
+        int[] texIndices = new int[nFaces * 3];
+        short[] materials = new short[nFaces];
+        if(nFaces > 0){
+            try(FileChannel channel = FileChannel.open(slabFiles[slab].toPath(), StandardOpenOption.READ)){
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, (long) nFaces * RECORD_SIZE);
+                for(int i = 0; i < nFaces; i++){
+                    for(int j = 0; j < 9; j++) slabPositions[i * 9 + j] = buffer.getFloat();
+                    for(int j = 0; j < 6; j++) slabTexCoords[i * 6 + j] = buffer.getFloat();
+                    int material = buffer.getInt();
+                    materials[i] = (short) material;
+                    for(int j = 0; j < 3; j++){
+                        indices[i * 3 + j] = i * 3 + j;
+                        texIndices[i * 3 + j] = material < 0 ? -1 : i * 3 + j;
+                    }
+                }
+            }
+        }
+        return new Mesh(slabPositions, slabTexCoords, indices, texIndices, materials, materialNames);
+    }
+
+
+    /**
+     * Delete the spill files.
+     */
+    @Override
+    public void close(){
+        if(directory == null) return;
+        positionFile.delete();
+        texCoordFile.delete();
+        if(slabFiles != null){
+            for(File f : slabFiles){
+                if(f != null) f.delete();
+            }
+        }
+        directory.toFile().delete();
+        directory = null;
+    }
+
+}
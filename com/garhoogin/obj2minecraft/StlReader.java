@@ -0,0 +1,79 @@
+package com.garhoogin.obj2minecraft;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * This class contains methods for reading a binary STL file. The file is
+ * memory-mapped and its triangle records are read straight out of the
+ * mapping. STL files have no texture coordinates or materials.
+ *
+ * @author Declan Moore
+ */
+final class StlReader {
+
+    private static final int HEADER_SIZE = 84;
+    private static final int RECORD_SIZE = 50;
+
+    private StlReader(){
+    }
+
+
+    /**
+     * Read a binary STL file.
+     *
+     * @param f            the STL file
+     * @return             the mesh read from the file
+     * @throws IOException if the file could not be read or is not a binary
+     *                     STL file
+     */
+    static Mesh read(File f) throws IOException{
+        try(FileChannel channel = FileChannel.open(f.toPath(), StandardOpenOption.READ)){
+            long size = channel.size();
+            if(size < HEADER_SIZE) throw new IOException("Not a binary STL file: " + f);
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            long nTriangles = header.getInt(80) & 0xFFFFFFFFL;
+            if(size != HEADER_SIZE + nTriangles * RECORD_SIZE){
+                //ASCII STL starts with "solid" and won't match its count
+                throw new IOException("Not a binary STL file, or it is truncated: " + f);
+            }
+            if(nTriangles * 9 > Integer.MAX_VALUE) throw new IOException("Too many triangles in " + f);
+
+            int n = (int) nTriangles;
+            float[] positions = new float[n * 9];
+            //map whole records, in windows of up to the usual size
+            long windowRecords = ObjReader.MAP_WINDOW_SIZE / RECORD_SIZE;
+            int face = 0;
+            while(face < n){
+                int count = (int) Math.min(n - face, windowRecords);
+                ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY,
+                        HEADER_SIZE + (long) face * RECORD_SIZE, (long) count * RECORD_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+                for(int i = 0; i < count; i++){
+                    //skip the 12-byte normal, read 3 vertices
+                    int offset = i * RECORD_SIZE + 12;
+                    int dest = (face + i) * 9;
+                    for(int j = 0; j < 9; j++){
+                        positions[dest + j] = buffer.getFloat(offset + j * 4);
+                    }
+                }
+                face += count;
+            }
+
+            int[] indices = new int[n * 3];
+            int[] texIndices = new int[n * 3];
+            short[] materials = new short[n];
+            for(int i = 0; i < indices.length; i++){
+                indices[i] = i;
+                texIndices[i] = -1;
+            }
+            Arrays.fill(materials, (short) -1);
+            return new Mesh(positions, new float[0], indices, texIndices, materials, new String[0]);
+        }
+    }
+
+}
@@ -0,0 +1,113 @@
+package com.garhoogin.obj2minecraft;
+
+import java.util.stream.IntStream;
+
+/**
+ * The {@code SummedAreaTable} class sums any rectangle of a texture in
+ * constant time. It keeps four planes: the alpha of the texels, and their
+ * red, green and blue each multiplied by alpha. Each entry of a plane holds
+ * the total of the texels above and to the left of it, so the total of a
+ * rectangle is found from the entries at its four corners. The texture
+ * repeats, so a rectangle may wrap around it, but callers clamp it to one
+ * period of the texture per axis, since totals over many periods of a small
+ * texture can overflow a {@code long}. The planes are built on all
+ * processors, first along rows and then down columns.
+ *
+ * @author Declan Moore
+ */
+final class SummedAreaTable {
+
+    /**
+     * the plane of alpha
+     */
+    static final int ALPHA = 0;
+
+    /**
+     * the plane of red multiplied by alpha
+     */
+    static final int RED = 1;
+
+    /**
+     * the plane of green multiplied by alpha
+     */
+    static final int GREEN = 2;
+
+    /**
+     * the plane of blue multiplied by alpha
+     */
+    static final int BLUE = 3;
+
+    private final int width;
+    private final int height;
+    private final int stride;
+    private final long[][] planes;
+
+
+    /**
+     * Create a new instance of {@code SummedAreaTable} for a texture.
+     *
+     * @param pixels the texels as packed ARGB, row by row
+     * @param width  the width of the texture
+     * @param height the height of the texture
+     */
+    SummedAreaTable(int[] pixels, int width, int height){
+        this.width = width;
+        this.height = height;
+        //an extra row and column of zeroes keep the corners in bounds
+        this.stride = width + 1;
+        this.planes = new long[4][stride * (height + 1)];
+        IntStream.range(0, height).parallel().forEach(y -> {
+            long a = 0, r = 0, g = 0, b = 0;
+            int row = (y + 1) * stride;
+            for(int x = 0; x < width; x++){
+                int c = pixels[y * width + x];
+                int ca = c >>> 24;
+                a += ca;
+                r += ((c >>> 16) & 0xFF) * ca;
+                g += ((c >>> 8) & 0xFF) * ca;
+                b += (c & 0xFF) * ca;
+                planes[ALPHA][row + x + 1] = a;
+                planes[RED][row + x + 1] = r;
+                planes[GREEN][row + x + 1] = g;
+                planes[BLUE][row + x + 1] = b;
+            }
+        });
+        IntStream.range(1, stride).parallel().forEach(x -> {
+            for(long[] plane : planes){
+                for(int y = 2; y <= height; y++){
+                    plane[y * stride + x] += plane[(y - 1) * stride + x];
+                }
+            }
+        });
+    }
+
+
+    /**
+     * Sum a plane over a rectangle of texels. Texel coordinates wrap around
+     * the texture, as they do when it is sampled.
+     *
+     * @param plane the plane to sum
+     * @param xMin  the first texel in the X direction
+     * @param yMin  the first texel in the Y direction
+     * @param xMax  the texel after the last in the X direction
+     * @param yMax  the texel after the last in the Y direction
+     * @return      the total
+     */
+    long sum(int plane, int xMin, int yMin, int xMax, int yMax){
+        long[] p = planes[plane];
+        return prefix(p, xMax, yMax) - prefix(p, xMin, yMax) - prefix(p, xMax, yMin) + prefix(p, xMin, yMin);
+    }
+
+    /**
+     * Sum a plane of the repeating texture from the origin up to a corner,
+     * counting area to the left of or above the origin as negative.
+     */
+    private long prefix(long[] p, int x, int y){
+        long tilesX = Math.floorDiv(x, width), tilesY = Math.floorDiv(y, height);
+        int restX = Math.floorMod(x, width), restY = Math.floorMod(y, height);
+        //whole tiles, then whole columns and rows of the tile, then the rest
+        return tilesX * tilesY * p[height * stride + width] + tilesX * p[restY * stride + width]
+                + tilesY * p[height * stride + restX] + p[restY * stride + restX];
+    }
+
+}
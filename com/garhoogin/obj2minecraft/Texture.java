@@ -4,6 +4,7 @@ import java.awt.Color;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import javax.imageio.ImageIO;
 
 /**
@@ -24,27 +25,82 @@ public class Texture {
     public final int height;
     
     /**
-     * the {@code BufferedImage} backing this texture
+     * the texels of this texture as packed ARGB, row by row
      */
-    private final BufferedImage image;
+    private final int[] pixels;
+    
+    /**
+     * the masks that wrap a coordinate into the texture when its width or
+     * height is a power of two, or -1 if it isn't
+     */
+    private final int wrapMaskX, wrapMaskY;
     
     /**
      * The name of this texture
      */
     public final String name;
     
+    /**
+     * the mask of texels opaque enough to show, made when first needed
+     */
+    private volatile AlphaMask alphaMask;
+    
+    /**
+     * the sums of rectangles of texels, made when a box big enough to need
+     * it is first sampled
+     */
+    private volatile SummedAreaTable summedAreaTable;
+    
+    /**
+     * the smaller copies of this texture, made at load if they are used in
+     * place of the summed-area table, otherwise null
+     */
+    private final MipChain mipChain;
+    
+    /**
+     * the number of texels in a box above which it is averaged from the
+     * summed-area table or mip chain rather than texel by texel
+     */
+    static final int TABLE_TEXELS = 64;
+    
+    /**
+     * the texel coordinate beyond which a box is taken to span the whole
+     * texture in that direction. A sliver of a face can map a block to
+     * coordinates this far out, where a float no longer picks out a texel
+     * and an int can overflow.
+     */
+    private static final float MAX_TEXEL = 1 << 24;
+    
     
     /**
-     * Create a new instance of a texture.
+     * Create a new instance of a texture. The image's texels are copied, so
+     * the image isn't kept.
      * 
      * @param i    the texture image
      * @param name the texture name
      */
     public Texture(BufferedImage i, String name){
-        this.image = i;
         this.width = i.getWidth();
         this.height = i.getHeight();
+        this.pixels = i.getRGB(0, 0, width, height, null, 0, width);
+        this.wrapMaskX = Integer.bitCount(width) == 1 ? width - 1 : -1;
+        this.wrapMaskY = Integer.bitCount(height) == 1 ? height - 1 : -1;
         this.name = name;
+        this.mipChain = MipChain.isSelected() ? new MipChain(pixels, width, height) : null;
+    }
+    
+    /**
+     * Get a texel as packed ARGB. The x and y coordinates wrap around the
+     * width and height of the texture.
+     * 
+     * @param coordX the x coordinate
+     * @param coordY the y coordinate
+     * @return       the texel at the specified coordinates
+     */
+    int getPixel(int coordX, int coordY){
+        coordX = wrapMaskX >= 0 ? coordX & wrapMaskX : Math.floorMod(coordX, width);
+        coordY = wrapMaskY >= 0 ? coordY & wrapMaskY : Math.floorMod(coordY, height);
+        return pixels[coordY * width + coordX];
     }
     
     /**
@@ -56,35 +112,114 @@ public class Texture {
      * @return       the color at the specified coordinates
      */
     public Color sampleOne(int coordX, int coordY){
-        coordX = ((coordX % width) + width) % width;
-        coordY = ((coordY % height) + height) % height;
-        int c = image.getRGB(coordX, coordY);
-        return new Color((c >>> 16) & 0xFF, (c >>> 8) & 0xFF, c & 0xFF, (c >>> 24) & 0xFF);
+        return new Color(getPixel(coordX, coordY), true);
+    }
+    
+    /**
+     * Get the mask of this texture's texels that are opaque enough to show.
+     * 
+     * @return the alpha mask
+     */
+    AlphaMask getAlphaMask(){
+        AlphaMask mask = alphaMask;
+        if(mask == null){
+            synchronized(this){
+                mask = alphaMask;
+                if(mask == null){
+                    mask = new AlphaMask(pixels, width, height);
+                    alphaMask = mask;
+                }
+            }
+        }
+        return mask;
+    }
+    
+    /**
+     * Get the summed-area table of this texture.
+     * 
+     * @return the summed-area table
+     */
+    SummedAreaTable getSummedAreaTable(){
+        SummedAreaTable table = summedAreaTable;
+        if(table == null){
+            synchronized(this){
+                table = summedAreaTable;
+                if(table == null){
+                    table = new SummedAreaTable(pixels, width, height);
+                    summedAreaTable = table;
+                }
+            }
+        }
+        return table;
     }
     
-    static Color avg(Color[] colors){
-        if(colors.length == 0) return new Color(0, 0, 0, 0);
-        //first, find the average alpha. This is the easiest part.
-        int a = 0;
-        for(Color c : colors){
-            a += c.getAlpha();
+    /**
+     * Average a rectangle of texels, wrapping around the texture. Each
+     * texel's color is weighted by its alpha, and a rectangle larger than
+     * the texture is clamped to one period of it on that axis.
+     * 
+     * @return the average as packed ARGB
+     */
+    private int average(int xMin, int yMin, int xMax, int yMax){
+        if(xMax <= xMin || yMax <= yMin) return 0;
+        //a rectangle wider or taller than the texture covers it once, which
+        //keeps the summed-area table's totals from overflowing
+        if(xMax - xMin >= width){
+            xMin = 0;
+            xMax = width;
+        }
+        if(yMax - yMin >= height){
+            yMin = 0;
+            yMax = height;
         }
-        int totalAlpha = a;
-        if(totalAlpha == 0) return new Color(0, 0, 0, 0);
-        a = (a + (colors.length >>> 1)) / colors.length;
-        //next, take weighted averages. each color's weight is its alpha. 
-        int r = 0, g = 0, b = 0;
-        for(Color c : colors){
-            int ca = c.getAlpha();
-            r += c.getRed() * ca;
-            g += c.getGreen() * ca;
-            b += c.getBlue() * ca;
+        long n = (long) (xMax - xMin) * (yMax - yMin);
+        long a = 0, r = 0, g = 0, b = 0;
+        if(n > TABLE_TEXELS && mipChain != null){
+            return mipChain.average(xMin, yMin, xMax, yMax);
+        } else if(n > TABLE_TEXELS){
+            SummedAreaTable table = getSummedAreaTable();
+            a = table.sum(SummedAreaTable.ALPHA, xMin, yMin, xMax, yMax);
+            r = table.sum(SummedAreaTable.RED, xMin, yMin, xMax, yMax);
+            g = table.sum(SummedAreaTable.GREEN, xMin, yMin, xMax, yMax);
+            b = table.sum(SummedAreaTable.BLUE, xMin, yMin, xMax, yMax);
+        } else {
+            for(int y = yMin; y < yMax; y++){
+                for(int x = xMin; x < xMax; x++){
+                    int c = getPixel(x, y);
+                    int ca = c >>> 24;
+                    a += ca;
+                    r += ((c >>> 16) & 0xFF) * ca;
+                    g += ((c >>> 8) & 0xFF) * ca;
+                    b += (c & 0xFF) * ca;
+                }
+            }
         }
-        //divide r,g,b by the total alpha
+        //the alpha is a plain average, the colors are divided by the total
+        //alpha
+        long totalAlpha = a;
+        if(totalAlpha == 0) return 0;
+        a = (a + (n >>> 1)) / n;
         r = (r + (totalAlpha >>> 1)) / totalAlpha;
         g = (g + (totalAlpha >>> 1)) / totalAlpha;
         b = (b + (totalAlpha >>> 1)) / totalAlpha;
-        return new Color(r, g, b, a);
+        return (int) ((a << 24) | (r << 16) | (g << 8) | b);
+    }
+    
+    /**
+     * Sample a 3x3 area of the texture at the given UV coordinates.
+     * 
+     * @param u the U coordinate
+     * @param v the V coordinate
+     * @return  the average of the 3x3 area around the UV coordinate, as
+     *          packed ARGB
+     */
+    int sampleRGB(float u, float v){
+        int coordX = (int) (u * width);
+        int coordY = (int) (v * height);
+        if(Math.abs(u * width) >= MAX_TEXEL || Math.abs(v * height) >= MAX_TEXEL){
+            return sampleRGB(u, v, u, v);
+        }
+        return average(coordX - 1, coordY - 1, coordX + 2, coordY + 2);
     }
     
     /**
@@ -96,19 +231,7 @@ public class Texture {
      * @deprecated don't use this please
      */
     public Color sample(float u, float v){
-        int coordX = (int) (u * width);
-        int coordY = (int) (v * height);
-        Color[] colors = new Color[9];
-        colors[0] = sampleOne(coordX - 1, coordY - 1);
-        colors[1] = sampleOne(coordX, coordY - 1);
-        colors[2] = sampleOne(coordX + 1, coordY - 1);
-        colors[3] = sampleOne(coordX - 1, coordY);
-        colors[4] = sampleOne(coordX, coordY);
-        colors[5] = sampleOne(coordX + 1, coordY);
-        colors[6] = sampleOne(coordX - 1, coordY + 1);
-        colors[7] = sampleOne(coordX, coordY + 1);
-        colors[8] = sampleOne(coordX + 1, coordY + 1);
-        return avg(colors);
+        return new Color(sampleRGB(u, v), true);
     }
     
     /**
@@ -121,9 +244,63 @@ public class Texture {
      * @throws IOException if the texture image could not be read
      */
     public static Texture readTexture(String path, String name) throws IOException{
-        return new Texture(ImageIO.read(new File(path)), name);
+        BufferedImage image = ImageIO.read(new File(path));
+        if(image == null) throw new IOException("Unsupported image format: " + path);
+        return new Texture(image, name);
+    }
+    
+    /**
+     * Read a texture from a stream. The stream is not closed.
+     * 
+     * @param in           the stream of image data
+     * @param name         the name of the texture
+     * @return             the texture read from the stream
+     * @throws IOException if the image could not be read or its format is
+     *                     not supported
+     */
+    public static Texture readTexture(InputStream in, String name) throws IOException{
+        BufferedImage image = ImageIO.read(in);
+        if(image == null) throw new IOException("Unsupported image format: " + name);
+        return new Texture(image, name);
+    }
+    
+    
+    /**
+     * Sample a texture by a box given by its minimum and maximum points.
+     * 
+     * @param uvMin the box's minimum point
+     * @param uvMax the box's maximum point
+     * @return      the average within the input box, as packed ARGB
+     */
+    int sampleRGB(Coord uvMin, Coord uvMax){
+        return sampleRGB(uvMin.x, uvMin.y, uvMax.x, uvMax.y);
     }
     
+    /**
+     * Sample a texture by a box given by its minimum and maximum UV
+     * coordinates.
+     * 
+     * @param uMin the box's minimum U coordinate
+     * @param vMin the box's minimum V coordinate
+     * @param uMax the box's maximum U coordinate
+     * @param vMax the box's maximum V coordinate
+     * @return     the average within the input box, as packed ARGB
+     */
+    int sampleRGB(float uMin, float vMin, float uMax, float vMax){
+        int xMin = (int) (uMin * width);
+        int xMax = (int) (uMax * width) + 1;
+        int yMin = (int) (vMin * height);
+        int yMax = (int) (vMax * height) + 1;
+        if(Math.abs(uMin * width) >= MAX_TEXEL || Math.abs(uMax * width) >= MAX_TEXEL){
+            xMin = 0;
+            xMax = width;
+        }
+        if(Math.abs(vMin * height) >= MAX_TEXEL || Math.abs(vMax * height) >= MAX_TEXEL){
+            yMin = 0;
+            yMax = height;
+        }
+        return average(xMin, yMin, xMax, yMax);
+    }
     
     /**
      * Sample a texture by a box given by its minimum and maximum points.
@@ -134,19 +311,7 @@ public class Texture {
      * @since       1.0.1.0
      */
     public Color sample(Coord uvMin, Coord uvMax){
-        int xMin = (int) (uvMin.x * width);
-        int xMax = (int) (uvMax.x * width) + 1;
-        int yMin = (int) (uvMin.y * height);
-        int yMax = (int) (uvMax.y * height) + 1;
-        int texelsX = xMax - xMin;
-        int texelsY = yMax - yMin;
-        Color[] colors = new Color[texelsX * texelsY];
-        for(int x = xMin; x < xMax; x++){
-            for(int y = yMin; y < yMax; y++){
-                colors[(y - yMin) * texelsX + x - xMin] = sampleOne(x, y);
-            }
-        }
-        return avg(colors);
+        return new Color(sampleRGB(uvMin, uvMax), true);
     }
     
 }
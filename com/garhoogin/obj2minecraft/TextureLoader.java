@@ -0,0 +1,253 @@
+package com.garhoogin.obj2minecraft;
+
+import static com.garhoogin.obj2minecraft.Main.MAX_THREADS;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * The {@code TextureLoader} class decodes the textures of a model in the
+ * background. Materials are defined first, mapping each material name to an
+ * image file. Once the mesh is known, only the images used by its faces are
+ * decoded, each image once no matter how many materials share it, on a pool
+ * of threads. Asking for a texture blocks only until that one image has been
+ * decoded. Images can be files of their own, entries in a ZIP archive, or
+ * image data embedded in a model file.
+ *
+ * @author Declan Moore
+ */
+public class TextureLoader {
+
+    private final Map<String, Image> definitions;
+    private final Map<Image, Future<Texture>> images;
+    private final Map<String, Texture> textures;
+    private final Set<String> missing;
+    private final Set<Image> failed;
+
+
+    /**
+     * Create a new, empty instance of {@code TextureLoader}.
+     */
+    public TextureLoader(){
+        this.definitions = new HashMap<>();
+        this.images = new HashMap<>();
+        this.textures = new ConcurrentHashMap<>();
+        this.missing = ConcurrentHashMap.newKeySet();
+        this.failed = new HashSet<>();
+    }
+
+
+    /**
+     * Define the texture image of a material.
+     *
+     * @param material the material name
+     * @param image    the texture image file
+     */
+    public synchronized void define(String material, File image){
+        definitions.put(material, new Image(image.getAbsoluteFile(), null, null));
+    }
+
+
+    /**
+     * Define the texture image of a material as an entry in a ZIP archive.
+     *
+     * @param material the material name
+     * @param archive  the ZIP archive
+     * @param entry    the name of the image entry in the archive
+     */
+    public synchronized void define(String material, File archive, String entry){
+        definitions.put(material, new Image(archive.getAbsoluteFile(), entry, null));
+    }
+
+
+    /**
+     * Define the texture image of a material as image data embedded in a
+     * model file. The buffer is only read when the image is decoded, so it
+     * must not change until then.
+     *
+     * @param material the material name
+     * @param model    the model file holding the image
+     * @param name     a name for the image, unique within the model file
+     * @param data     the encoded image data
+     */
+    public synchronized void define(String material, File model, String name, ByteBuffer data){
+        definitions.put(material, new Image(model.getAbsoluteFile(), name, data));
+    }
+
+
+    /**
+     * Check whether no material has a texture.
+     *
+     * @return true if no textures have been defined
+     */
+    public synchronized boolean isEmpty(){
+        return definitions.isEmpty();
+    }
+
+
+    /**
+     * Start decoding the textures of every material used by a mesh. Images
+     * that aren't used by any face are never decoded.
+     *
+     * @param mesh the mesh whose textures are needed
+     */
+    public void start(Mesh mesh){
+        boolean[] used = new boolean[mesh.materialNames.length];
+        for(short material : mesh.materials){
+            if(material >= 0) used[material] = true;
+        }
+        List<String> materials = new ArrayList<>();
+        for(int i = 0; i < used.length; i++){
+            if(used[i]) materials.add(mesh.materialNames[i]);
+        }
+        start(materials);
+    }
+
+
+    /**
+     * Start decoding the textures of a set of materials.
+     *
+     * @param materials the names of the materials whose textures are needed
+     */
+    public synchronized void start(Collection<String> materials){
+        Set<Image> files = new HashSet<>();
+        for(String material : materials){
+            Image image = definitions.get(material);
+            if(image != null && !images.containsKey(image)) files.add(image);
+        }
+        if(files.isEmpty()) return;
+
+        int nThreads = Math.min(files.size(), Math.min(MAX_THREADS, Runtime.getRuntime().availableProcessors()));
+        ExecutorService executor = Executors.newFixedThreadPool(nThreads, r -> {
+            Thread thread = new Thread(r, "Texture loader");
+            thread.setDaemon(true);
+            return thread;
+        });
+        for(Image image : files){
+            images.put(image, executor.submit(image::decode));
+        }
+        //already submitted decodes still run, the threads exit after
+        executor.shutdown();
+    }
+
+
+    /**
+     * Get the texture of a material, waiting for it to be decoded if it hasn't
+     * been yet.
+     *
+     * @param material the material name
+     * @return         the material's texture, or {@code null} if it has none
+     *                 or it could not be read
+     */
+    public Texture get(String material){
+        if(material == null) return null;
+        Texture texture = textures.get(material);
+        if(texture != null || missing.contains(material)) return texture;
+        Image image;
+        Future<Texture> future;
+        synchronized(this){
+            image = definitions.get(material);
+            future = images.get(image);
+        }
+        if(image == null){
+            missing.add(material);
+            return null;
+        }
+
+        try{
+            //decode it right here if it wasn't started for the mesh
+            texture = future != null ? future.get() : image.decode();
+        } catch(ExecutionException ex){
+            reportError(image, ex.getCause());
+        } catch(IOException ex){
+            reportError(image, ex);
+        } catch(InterruptedException ex){
+            Thread.currentThread().interrupt();
+            return null;
+        }
+        if(texture != null) textures.put(material, texture);
+        else missing.add(material);
+        return texture;
+    }
+
+    @SuppressWarnings({"CallToPrintStackTrace"})
+    private synchronized void reportError(Image image, Throwable ex){
+        //only complain once about each image
+        if(failed.add(image)){
+            System.err.println("Error reading texture " + image);
+            ex.printStackTrace();
+        }
+    }
+
+
+
+    /**
+     * A texture image: a file of its own, an entry in a ZIP archive, or data
+     * embedded in a model file. Images are told apart by file and entry name.
+     */
+    private static final class Image{
+
+        private final File file;
+        private final String entry;
+        private final ByteBuffer data;
+
+        Image(File file, String entry, ByteBuffer data){
+            this.file = file;
+            this.entry = entry;
+            this.data = data;
+        }
+
+        Texture decode() throws IOException{
+            if(data != null){
+                byte[] bytes = new byte[data.remaining()];
+                data.duplicate().get(bytes);
+                return Texture.readTexture(new ByteArrayInputStream(bytes), entry);
+            }
+            if(entry == null) return Texture.readTexture(file.getPath(), file.getName());
+            try(ZipFile zip = new ZipFile(file)){
+                ZipEntry zipEntry = zip.getEntry(entry);
+                if(zipEntry == null) throw new FileNotFoundException(this.toString());
+                try(InputStream in = zip.getInputStream(zipEntry)){
+                    return Texture.readTexture(in, entry.substring(entry.lastIndexOf('/') + 1));
+                }
+            }
+        }
+
+        @Override
+        public boolean equals(Object o){
+            if(!(o instanceof Image)) return false;
+            Image other = (Image) o;
+            return file.equals(other.file) && Objects.equals(entry, other.entry);
+        }
+
+        @Override
+        public int hashCode(){
+            return file.hashCode() * 31 + Objects.hashCode(entry);
+        }
+
+        @Override
+        public String toString(){
+            return entry == null ? file.toString() : file + "!/" + entry;
+        }
+
+    }
+
+}
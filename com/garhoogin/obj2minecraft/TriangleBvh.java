@@ -0,0 +1,404 @@
+package com.garhoogin.obj2minecraft;
+
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The {@code TriangleBvh} class is a bounding volume hierarchy over a set of
+ * faces of a mesh. It is built with binned surface area heuristic splits,
+ * with large subtrees built in parallel on the common fork/join pool. It
+ * answers two queries: every face whose bounding box overlaps a box, and the
+ * face nearest to a point. Unlike a uniform grid, it adapts to meshes whose
+ * faces are spread very unevenly.
+ * <p>
+ * The {@code obj2mc.index} system property selects it over the uniform grid
+ * for finding the faces near a block, and the {@code obj2mc.nearest} property
+ * colors each block from the surface nearest its center rather than the
+ * first face found. Queries are not thread-safe; each layerer builds its own.
+ *
+ * @author Declan Moore
+ */
+final class TriangleBvh {
+
+    /**
+     * the system property naming the spatial index to use, {@code grid} or
+     * {@code bvh}
+     */
+    static final String INDEX_PROPERTY = "obj2mc.index";
+
+    /**
+     * the system property that colors blocks from the nearest surface
+     */
+    static final String NEAREST_PROPERTY = "obj2mc.nearest";
+
+    private static final int BINS = 12;
+    private static final int LEAF_SIZE = 4;
+    private static final int MAX_LEAF_SIZE = 16;
+    private static final int PARALLEL_SIZE = 1 << 12;
+
+    private final Mesh mesh;
+    private final int[] faces;
+    private final float[] centroids;
+    private final int[] order;
+    private final float[] nodeBounds;
+    private final int[] nodeStart;
+    private final int[] nodeCount;
+    private final AtomicInteger nodeCounter = new AtomicInteger(1);
+    private final AtomicInteger depth = new AtomicInteger();
+    private final int[] stack;
+
+
+    /**
+     * Create a new instance of {@code TriangleBvh} and build it.
+     *
+     * @param mesh  the mesh
+     * @param faces the faces to hold, in ascending order
+     */
+    TriangleBvh(Mesh mesh, int[] faces){
+        this.mesh = mesh;
+        this.faces = faces;
+        int n = faces.length;
+        this.centroids = new float[n * 3];
+        this.order = new int[n];
+        for(int i = 0; i < n; i++){
+            int f = faces[i] * 6;
+            centroids[i * 3] = 0.5f * (mesh.bounds[f] + mesh.bounds[f + 3]);
+            centroids[i * 3 + 1] = 0.5f * (mesh.bounds[f + 1] + mesh.bounds[f + 4]);
+            centroids[i * 3 + 2] = 0.5f * (mesh.bounds[f + 2] + mesh.bounds[f + 5]);
+            order[i] = i;
+        }
+        int maxNodes = Math.max(2 * n - 1, 1);
+        this.nodeBounds = new float[maxNodes * 6];
+        this.nodeStart = new int[maxNodes];
+        this.nodeCount = new int[maxNodes];
+        new Build(0, 0, n, 1).invoke();
+        this.stack = new int[depth.get() * 2 + 2];
+    }
+
+
+    /**
+     * Check whether the {@code obj2mc.index} property selects this index.
+     *
+     * @return true if it is set to {@code bvh}
+     */
+    static boolean isSelected(){
+        return "bvh".equalsIgnoreCase(System.getProperty(INDEX_PROPERTY));
+    }
+
+
+    /**
+     * Check whether blocks should be colored from the nearest surface.
+     *
+     * @return true if the {@code obj2mc.nearest} property is set to true
+     */
+    static boolean isNearestEnabled(){
+        return Boolean.getBoolean(NEAREST_PROPERTY);
+    }
+
+
+    /**
+     * Builds the subtree of one node.
+     */
+    private final class Build extends RecursiveAction{
+
+        private static final long serialVersionUID = 1L;
+
+        private final int node;
+        private final int start;
+        private final int end;
+        private final int level;
+
+        Build(int node, int start, int end, int level){
+            this.node = node;
+            this.start = start;
+            this.end = end;
+            this.level = level;
+        }
+
+        @Override
+        protected void compute(){
+            depth.accumulateAndGet(level, Math::max);
+            float[] b = new float[6];
+            float[] c = new float[6];
+            bound(start, end, b, c);
+            System.arraycopy(b, 0, nodeBounds, node * 6, 6);
+            int count = end - start;
+            int axis = 0;
+            for(int i = 1; i < 3; i++){
+                if(c[i + 3] - c[i] > c[axis + 3] - c[axis]) axis = i;
+            }
+            float extent = c[axis + 3] - c[axis];
+            if(count <= LEAF_SIZE || !(extent > 0.0f)){
+                makeLeaf();
+                return;
+            }
+
+            //bin the centroids along the longest axis
+            int[] binCount = new int[BINS];
+            float[] binBounds = new float[BINS * 6];
+            for(int i = 0; i < BINS; i++) emptyBounds(binBounds, i * 6);
+            float scale = BINS / extent;
+            for(int i = start; i < end; i++){
+                int bin = getBin(order[i], axis, c[axis], scale);
+                binCount[bin]++;
+                growBounds(binBounds, bin * 6, faces[order[i]] * 6);
+            }
+
+            //sweep from the right, then from the left, for the best split
+            float[] rightArea = new float[BINS];
+            int[] rightCount = new int[BINS];
+            float[] acc = new float[6];
+            emptyBounds(acc, 0);
+            int n = 0;
+            for(int i = BINS - 1; i > 0; i--){
+                n += binCount[i];
+                union(acc, binBounds, i * 6);
+                rightArea[i] = area(acc);
+                rightCount[i] = n;
+            }
+            emptyBounds(acc, 0);
+            n = 0;
+            float bestCost = Float.POSITIVE_INFINITY;
+            int bestSplit = -1;
+            for(int i = 1; i < BINS; i++){
+                n += binCount[i - 1];
+                union(acc, binBounds, (i - 1) * 6);
+                if(n == 0 || rightCount[i] == 0) continue;
+                float cost = area(acc) * n + rightArea[i] * rightCount[i];
+                if(cost < bestCost){
+                    bestCost = cost;
+                    bestSplit = i;
+                }
+            }
+            if(bestSplit < 0 || (bestCost >= area(b) * count && count <= MAX_LEAF_SIZE)){
+                makeLeaf();
+                return;
+            }
+
+            //partition the faces around the split
+            int i = start, j = end - 1;
+            while(i <= j){
+                if(getBin(order[i], axis, c[axis], scale) < bestSplit){
+                    i++;
+                } else {
+                    int tmp = order[i];
+                    order[i] = order[j];
+                    order[j] = tmp;
+                    j--;
+                }
+            }
+            int left = nodeCounter.getAndAdd(2);
+            nodeStart[node] = left;
+            nodeCount[node] = 0;
+            Build l = new Build(left, start, i, level + 1);
+            Build r = new Build(left + 1, i, end, level + 1);
+            if(count > PARALLEL_SIZE){
+                ForkJoinTask.invokeAll(l, r);
+            } else {
+                l.compute();
+                r.compute();
+            }
+        }
+
+        private void makeLeaf(){
+            nodeStart[node] = start;
+            nodeCount[node] = end - start;
+        }
+
+    }
+
+    private int getBin(int item, int axis, float min, float scale){
+        int bin = (int) ((centroids[item * 3 + axis] - min) * scale);
+        return Math.min(Math.max(bin, 0), BINS - 1);
+    }
+
+    private void bound(int start, int end, float[] b, float[] c){
+        emptyBounds(b, 0);
+        emptyBounds(c, 0);
+        for(int i = start; i < end; i++){
+            int item = order[i];
+            growBounds(b, 0, faces[item] * 6);
+            for(int k = 0; k < 3; k++){
+                c[k] = Math.min(c[k], centroids[item * 3 + k]);
+                c[k + 3] = Math.max(c[k + 3], centroids[item * 3 + k]);
+            }
+        }
+    }
+
+    private void growBounds(float[] b, int offset, int faceOffset){
+        for(int k = 0; k < 3; k++){
+            b[offset + k] = Math.min(b[offset + k], mesh.bounds[faceOffset + k]);
+            b[offset + k + 3] = Math.max(b[offset + k + 3], mesh.bounds[faceOffset + k + 3]);
+        }
+    }
+
+    private static void emptyBounds(float[] b, int offset){
+        for(int k = 0; k < 3; k++){
+            b[offset + k] = Float.POSITIVE_INFINITY;
+            b[offset + k + 3] = Float.NEGATIVE_INFINITY;
+        }
+    }
+
+    private static void union(float[] b, float[] other, int offset){
+        for(int k = 0; k < 3; k++){
+            b[k] = Math.min(b[k], other[offset + k]);
+            b[k + 3] = Math.max(b[k + 3], other[offset + k + 3]);
+        }
+    }
+
+    private static float area(float[] b){
+        float dx = b[3] - b[0], dy = b[4] - b[1], dz = b[5] - b[2];
+        if(!(dx >= 0.0f)) return 0.0f;
+        return dx * dy + dy * dz + dz * dx;
+    }
+
+
+    /**
+     * Find every face whose bounding box overlaps a box. The result is in
+     * ascending face order.
+     *
+     * @param minX the lower x coordinate of the box
+     * @param minY the lower y coordinate of the box
+     * @param minZ the lower z coordinate of the box
+     * @param maxX the upper x coordinate of the box
+     * @param maxY the upper y coordinate of the box
+     * @param maxZ the upper z coordinate of the box
+     * @param out  the list to put the faces in; it is cleared first
+     */
+    void queryBox(float minX, float minY, float minZ, float maxX, float maxY, float maxZ, IntList out){
+        out.clear();
+        if(faces.length == 0) return;
+        int top = 0;
+        stack[top++] = 0;
+        while(top > 0){
+            int node = stack[--top];
+            int b = node * 6;
+            if(minX > nodeBounds[b + 3] || maxX < nodeBounds[b]
+                    || minY > nodeBounds[b + 4] || maxY < nodeBounds[b + 1]
+                    || minZ > nodeBounds[b + 5] || maxZ < nodeBounds[b + 2]) continue;
+            int count = nodeCount[node];
+            if(count == 0){
+                stack[top++] = nodeStart[node];
+                stack[top++] = nodeStart[node] + 1;
+                continue;
+            }
+            for(int i = nodeStart[node]; i < nodeStart[node] + count; i++){
+                int f = faces[order[i]] * 6;
+                if(minX > mesh.bounds[f + 3] || maxX < mesh.bounds[f]
+                        || minY > mesh.bounds[f + 4] || maxY < mesh.bounds[f + 1]
+                        || minZ > mesh.bounds[f + 5] || maxZ < mesh.bounds[f + 2]) continue;
+                out.add(faces[order[i]]);
+            }
+        }
+        out.sort();
+    }
+
+
+    /**
+     * Find the face nearest to a point. Of faces at the same distance, the
+     * lowest face is returned.
+     *
+     * @param px the x coordinate of the point
+     * @param py the y coordinate of the point
+     * @param pz the z coordinate of the point
+     * @return   the nearest face, or -1 if there are no faces
+     */
+    int nearest(float px, float py, float pz){
+        if(faces.length == 0) return -1;
+        float best = Float.POSITIVE_INFINITY;
+        int bestFace = -1;
+        int top = 0;
+        stack[top++] = 0;
+        while(top > 0){
+            int node = stack[--top];
+            if(boxDistance(node, px, py, pz) > best) continue;
+            int count = nodeCount[node];
+            if(count == 0){
+                //visit the nearer child first
+                int left = nodeStart[node];
+                if(boxDistance(left, px, py, pz) <= boxDistance(left + 1, px, py, pz)){
+                    stack[top++] = left + 1;
+                    stack[top++] = left;
+                } else {
+                    stack[top++] = left;
+                    stack[top++] = left + 1;
+                }
+                continue;
+            }
+            for(int i = nodeStart[node]; i < nodeStart[node] + count; i++){
+                int face = faces[order[i]];
+                float d = triangleDistance(face, px, py, pz);
+                if(d < best || (d == best && face < bestFace)){
+                    best = d;
+                    bestFace = face;
+                }
+            }
+        }
+        return bestFace;
+    }
+
+    /**
+     * Get the squared distance from a point to a node's box.
+     */
+    private float boxDistance(int node, float px, float py, float pz){
+        int b = node * 6;
+        float dx = Math.max(Math.max(nodeBounds[b] - px, px - nodeBounds[b + 3]), 0.0f);
+        float dy = Math.max(Math.max(nodeBounds[b + 1] - py, py - nodeBounds[b + 4]), 0.0f);
+        float dz = Math.max(Math.max(nodeBounds[b + 2] - pz, pz - nodeBounds[b + 5]), 0.0f);
+        return dx * dx + dy * dy + dz * dz;
+    }
+
+    /**
+     * Get the squared distance from a point to the closest point on a face,
+     * by the Voronoi regions of the triangle.
+     */
+    private float triangleDistance(int face, float px, float py, float pz){
+        float[] p = mesh.positions;
+        int a = mesh.indices[face * 3] * 3, b = mesh.indices[face * 3 + 1] * 3, c = mesh.indices[face * 3 + 2] * 3;
+        float abx = p[b] - p[a], aby = p[b + 1] - p[a + 1], abz = p[b + 2] - p[a + 2];
+        float acx = p[c] - p[a], acy = p[c + 1] - p[a + 1], acz = p[c + 2] - p[a + 2];
+        float apx = px - p[a], apy = py - p[a + 1], apz = pz - p[a + 2];
+        float d1 = abx * apx + aby * apy + abz * apz;
+        float d2 = acx * apx + acy * apy + acz * apz;
+        if(d1 <= 0.0f && d2 <= 0.0f) return distance(px, py, pz, p[a], p[a + 1], p[a + 2]);
+
+        float bpx = px - p[b], bpy = py - p[b + 1], bpz = pz - p[b + 2];
+        float d3 = abx * bpx + aby * bpy + abz * bpz;
+        float d4 = acx * bpx + acy * bpy + acz * bpz;
+        if(d3 >= 0.0f && d4 <= d3) return distance(px, py, pz, p[b], p[b + 1], p[b + 2]);
+
+        float vc = d1 * d4 - d3 * d2;
+        if(vc <= 0.0f && d1 >= 0.0f && d3 <= 0.0f){
+            float v = d1 / (d1 - d3);
+            return distance(px, py, pz, p[a] + v * abx, p[a + 1] + v * aby, p[a + 2] + v * abz);
+        }
+
+        float cpx = px - p[c], cpy = py - p[c + 1], cpz = pz - p[c + 2];
+        float d5 = abx * cpx + aby * cpy + abz * cpz;
+        float d6 = acx * cpx + acy * cpy + acz * cpz;
+        if(d6 >= 0.0f && d5 <= d6) return distance(px, py, pz, p[c], p[c + 1], p[c + 2]);
+
+        float vb = d5 * d2 - d1 * d6;
+        if(vb <= 0.0f && d2 >= 0.0f && d6 <= 0.0f){
+            float w = d2 / (d2 - d6);
+            return distance(px, py, pz, p[a] + w * acx, p[a + 1] + w * acy, p[a + 2] + w * acz);
+        }
+
+        float va = d3 * d6 - d5 * d4;
+        if(va <= 0.0f && (d4 - d3) >= 0.0f && (d5 - d6) >= 0.0f){
+            float w = (d4 - d3) / ((d4 - d3) + (d5 - d6));
+            return distance(px, py, pz, p[b] + w * (p[c] - p[b]), p[b + 1] + w * (p[c + 1] - p[b + 1]), p[b + 2] + w * (p[c + 2] - p[b + 2]));
+        }
+
+        float denom = 1.0f / (va + vb + vc);
+        float v = vb * denom, w = vc * denom;
+        return distance(px, py, pz, p[a] + abx * v + acx * w, p[a + 1] + aby * v + acy * w, p[a + 2] + abz * v + acz * w);
+    }
+
+    private static float distance(float x1, float y1, float z1, float x2, float y2, float z2){
+        float dx = x1 - x2, dy = y1 - y2, dz = z1 - z2;
+        return dx * dx + dy * dy + dz * dz;
+    }
+
+}
@@ -0,0 +1,123 @@
+package com.garhoogin.obj2minecraft;
+
+import java.util.function.IntConsumer;
+
+/**
+ * The {@code TriangleGrid} class is a uniform grid over a box of blocks,
+ * listing for each cell the faces that can overlap any block in it. Each cell
+ * is a cube of blocks, by default {@link #CELL_BLOCKS} on a side. The lists
+ * are stored compactly: {@code cellStart[c]} to {@code cellStart[c + 1]} is
+ * the range of {@code cellFaces} holding the faces of cell {@code c}, in the
+ * order they were given.
+ *
+ * @author Declan Moore
+ */
+final class TriangleGrid {
+
+    /**
+     * the default number of blocks along each side of a cell
+     */
+    static final int CELL_BLOCKS = 4;
+
+    /**
+     * the number of cells in the X, Y and Z directions
+     */
+    final int cellsX, cellsY, cellsZ;
+
+    /**
+     * the start of each cell's faces in {@code cellFaces}, plus the end of the
+     * last cell
+     */
+    final int[] cellStart;
+
+    /**
+     * the faces of every cell, one cell after another
+     */
+    final int[] cellFaces;
+
+    private final int minX;
+    private final int minY;
+    private final int minZ;
+    private final int cellBlocks;
+
+
+    /**
+     * Create a new instance of {@code TriangleGrid}.
+     *
+     * @param faces      the faces to add
+     * @param ranges     the range of blocks each face can overlap: the lowest
+     *                   x, y, z and highest x, y, z block, six per face
+     * @param minX       the first block of the box in the X direction
+     * @param minY       the first layer of the box
+     * @param minZ       the first block of the box in the Z direction
+     * @param sizeX      the number of blocks in the X direction
+     * @param sizeY      the number of layers
+     * @param sizeZ      the number of blocks in the Z direction
+     * @param cellBlocks the number of blocks along each side of a cell
+     */
+    TriangleGrid(int[] faces, int[] ranges, int minX, int minY, int minZ, int sizeX, int sizeY, int sizeZ, int cellBlocks){
+        this.minX = minX;
+        this.minY = minY;
+        this.minZ = minZ;
+        this.cellBlocks = cellBlocks;
+        this.cellsX = (sizeX + cellBlocks - 1) / cellBlocks;
+        this.cellsY = (sizeY + cellBlocks - 1) / cellBlocks;
+        this.cellsZ = (sizeZ + cellBlocks - 1) / cellBlocks;
+        this.cellStart = new int[cellsX * cellsY * cellsZ + 1];
+
+        //count the faces of each cell, then fill the cells in face order
+        int[] cellRanges = new int[faces.length * 6];
+        for(int i = 0; i < faces.length; i++){
+            toCells(ranges, i, cellRanges);
+            forEachCell(cellRanges, i, cell -> cellStart[cell + 1]++);
+        }
+        for(int c = 0; c < cellStart.length - 1; c++){
+            cellStart[c + 1] += cellStart[c];
+        }
+        this.cellFaces = new int[cellStart[cellStart.length - 1]];
+        int[] fill = cellStart.clone();
+        for(int i = 0; i < faces.length; i++){
+            int face = faces[i];
+            forEachCell(cellRanges, i, cell -> cellFaces[fill[cell]++] = face);
+        }
+    }
+
+    /**
+     * Convert a face's block range to a range of cells. An empty block range
+     * gives an empty cell range.
+     */
+    private void toCells(int[] ranges, int i, int[] cellRanges){
+        boolean empty = ranges[i * 6] > ranges[i * 6 + 3] || ranges[i * 6 + 1] > ranges[i * 6 + 4]
+                || ranges[i * 6 + 2] > ranges[i * 6 + 5];
+        cellRanges[i * 6] = (ranges[i * 6] - minX) / cellBlocks;
+        cellRanges[i * 6 + 1] = (ranges[i * 6 + 1] - minY) / cellBlocks;
+        cellRanges[i * 6 + 2] = (ranges[i * 6 + 2] - minZ) / cellBlocks;
+        cellRanges[i * 6 + 3] = empty ? -1 : (ranges[i * 6 + 3] - minX) / cellBlocks;
+        cellRanges[i * 6 + 4] = (ranges[i * 6 + 4] - minY) / cellBlocks;
+        cellRanges[i * 6 + 5] = (ranges[i * 6 + 5] - minZ) / cellBlocks;
+    }
+
+    private void forEachCell(int[] cellRanges, int i, IntConsumer action){
+        for(int cx = cellRanges[i * 6]; cx <= cellRanges[i * 6 + 3]; cx++){
+            for(int cy = cellRanges[i * 6 + 1]; cy <= cellRanges[i * 6 + 4]; cy++){
+                for(int cz = cellRanges[i * 6 + 2]; cz <= cellRanges[i * 6 + 5]; cz++){
+                    action.accept((cx * cellsY + cy) * cellsZ + cz);
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Get the cell holding a block.
+     *
+     * @param x the block's x coordinate
+     * @param y the block's layer
+     * @param z the block's z coordinate
+     * @return  the cell index
+     */
+    int getCell(int x, int y, int z){
+        return (((x - minX) / cellBlocks) * cellsY + (y - minY) / cellBlocks) * cellsZ + (z - minZ) / cellBlocks;
+    }
+
+}
@@ -0,0 +1,88 @@
+package com.garhoogin.obj2minecraft;
+
+/**
+ * The {@code VoxelGrid} class is a sparse set of blocks in a box. The box is
+ * divided into bricks of {@link #BRICK_BLOCKS} blocks on a side, and a brick
+ * only takes memory, one bit per block, once a block in it is added. This
+ * keeps the memory of a surface proportional to its area rather than to the
+ * volume of its bounding box.
+ *
+ * @author Declan Moore
+ */
+final class VoxelGrid {
+
+    /**
+     * the number of blocks along each side of a brick
+     */
+    static final int BRICK_BLOCKS = 8;
+
+    private static final int BRICK_SHIFT = 3;
+    private static final int BRICK_MASK = BRICK_BLOCKS - 1;
+
+    private final int bricksY;
+    private final int bricksZ;
+    private final long[][] bricks;
+
+
+    /**
+     * Create a new, empty instance of {@code VoxelGrid}.
+     *
+     * @param sizeX the number of blocks in the X direction
+     * @param sizeY the number of blocks in the Y direction
+     * @param sizeZ the number of blocks in the Z direction
+     */
+    VoxelGrid(int sizeX, int sizeY, int sizeZ){
+        int bricksX = (sizeX + BRICK_MASK) >> BRICK_SHIFT;
+        this.bricksY = (sizeY + BRICK_MASK) >> BRICK_SHIFT;
+        this.bricksZ = (sizeZ + BRICK_MASK) >> BRICK_SHIFT;
+        this.bricks = new long[bricksX * bricksY * bricksZ][];
+    }
+
+
+    /**
+     * Check whether a block is in the set.
+     *
+     * @param x the x coordinate of the block, from the corner of the box
+     * @param y the y coordinate of the block, from the corner of the box
+     * @param z the z coordinate of the block, from the corner of the box
+     * @return  true if the block has been added
+     */
+    boolean contains(int x, int y, int z){
+        long[] brick = bricks[getBrick(x, y, z)];
+        if(brick == null) return false;
+        int bit = getBit(x, y, z);
+        return (brick[bit >> 6] & (1L << bit)) != 0;
+    }
+
+
+    /**
+     * Add a block to the set.
+     *
+     * @param x the x coordinate of the block, from the corner of the box
+     * @param y the y coordinate of the block, from the corner of the box
+     * @param z the z coordinate of the block, from the corner of the box
+     * @return  true if the block was not already in the set
+     */
+    boolean add(int x, int y, int z){
+        int index = getBrick(x, y, z);
+        long[] brick = bricks[index];
+        if(brick == null){
+            brick = new long[BRICK_BLOCKS * BRICK_BLOCKS * BRICK_BLOCKS / 64];
+            bricks[index] = brick;
+        }
+        int bit = getBit(x, y, z);
+        long mask = 1L << bit;
+        if((brick[bit >> 6] & mask) != 0) return false;
+        brick[bit >> 6] |= mask;
+        return true;
+    }
+
+    private int getBrick(int x, int y, int z){
+        return ((x >> BRICK_SHIFT) * bricksY + (y >> BRICK_SHIFT)) * bricksZ + (z >> BRICK_SHIFT);
+    }
+
+    private static int getBit(int x, int y, int z){
+        return ((x & BRICK_MASK) << (BRICK_SHIFT * 2)) | ((y & BRICK_MASK) << BRICK_SHIFT) | (z & BRICK_MASK);
+    }
+
+}
@@ -3,9 +3,18 @@ package com.garhoogin.obj2minecraft.world;
 import com.garhoogin.obj2minecraft.ConverterGUI;
 import com.garhoogin.obj2minecraft.MaterialSet;
 import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+import javax.imageio.ImageIO;
 import javax.swing.JLabel;
 
 /**
@@ -67,6 +76,88 @@ public class World {
     }
     
     
+    /**
+     * Add a list of blocks to this world, whose names are already matched.
+     * 
+     * @param list the blocks to add
+     */
+    public void addBlocks(List<Block> list){
+        synchronized(blocks){
+            for(Block b : list){
+                blocks.add(b);
+                if(b.x < minX) minX = b.x;
+                if(b.x > maxX) maxX = b.x;
+                if(b.y < minY) minY = b.y;
+                if(b.y > maxY) maxY = b.y;
+                if(b.z < minZ) minZ = b.z;
+                if(b.z > maxZ) maxZ = b.z;
+            }
+        }
+    }
+    
+    
+    /**
+     * Get the blocks of this world as a set of columns. Blocks outside the
+     * columns or below 0 are left out.
+     * 
+     * @param sizeX the number of columns in the X direction
+     * @param sizeZ the number of columns in the Z direction
+     * @return      a set per column, of the Y coordinates of its blocks; the
+     *              column at {@code (x, z)} is at {@code x * sizeZ + z}, and
+     *              is null if it has no blocks
+     */
+    public BitSet[] getColumns(int sizeX, int sizeZ){
+        return getColumns(sizeX, sizeZ, name -> true);
+    }
+    
+    
+    /**
+     * Get some of the blocks of this world as a set of columns. Blocks
+     * outside the columns or below 0 are left out.
+     * 
+     * @param sizeX   the number of columns in the X direction
+     * @param sizeZ   the number of columns in the Z direction
+     * @param include tells, by name, which blocks to put in the columns
+     * @return        a set per column, of the Y coordinates of its blocks;
+     *                the column at {@code (x, z)} is at
+     *                {@code x * sizeZ + z}, and is null if it has no blocks
+     */
+    public BitSet[] getColumns(int sizeX, int sizeZ, Predicate<String> include){
+        BitSet[] columns = new BitSet[sizeX * sizeZ];
+        synchronized(blocks){
+            for(Block b : blocks){
+                if(b == null || b.x < 0 || b.x >= sizeX || b.z < 0 || b.z >= sizeZ || b.y < 0) continue;
+                if(!include.test(b.name)) continue;
+                int i = b.x * sizeZ + b.z;
+                if(columns[i] == null) columns[i] = new BitSet();
+                columns[i].set(b.y);
+            }
+        }
+        return columns;
+    }
+    
+    
+    /**
+     * Remove the blocks in a set of columns from this world. The bounds of
+     * the world are left as they are.
+     * 
+     * @param columns a set per column, as given by {@link #getColumns}, of
+     *                the Y coordinates of the blocks to remove; null for a
+     *                column with none
+     * @param sizeX   the number of columns in the X direction
+     * @param sizeZ   the number of columns in the Z direction
+     * @return        the number of blocks removed
+     */
+    public int removeBlocks(BitSet[] columns, int sizeX, int sizeZ){
+        synchronized(blocks){
+            int before = blocks.size();
+            blocks.removeIf(b -> b != null && b.x >= 0 && b.x < sizeX && b.z >= 0 && b.z < sizeZ && b.y >= 0
+                    && columns[b.x * sizeZ + b.z] != null && columns[b.x * sizeZ + b.z].get(b.y));
+            return before - blocks.size();
+        }
+    }
+    
+    
     /**
      * Save this {@code World}.
      * 
@@ -119,4 +210,75 @@ public class World {
         }
     }
     
+    
+    /**
+     * Save a top and a side view of this {@code World} as PNG images. The top
+     * view shows the highest block of each column, darker the lower it is,
+     * and the side view shows the block nearest the viewer in each row. This
+     * does not change the world, so it can be saved afterwards.
+     * 
+     * @param materialSet  the material set the blocks were matched with
+     * @param outDirectory the output directory
+     * @param name         the name to start the image file names with
+     * @throws IOException if either image failed to be written
+     */
+    public void savePreview(MaterialSet materialSet, String outDirectory, String name) throws IOException{
+        int sizeX = maxX - minX + 1;
+        int sizeY = maxY - minY + 1;
+        int sizeZ = maxZ - minZ + 1;
+        int[] top = new int[sizeX * sizeZ];
+        int[] topY = new int[sizeX * sizeZ];
+        int[] side = new int[sizeX * sizeY];
+        int[] sideZ = new int[sizeX * sizeY];
+        Arrays.fill(topY, Integer.MIN_VALUE);
+        Arrays.fill(sideZ, Integer.MAX_VALUE);
+        Map<String, Color> colors = new HashMap<>();
+        synchronized(blocks){
+            for(Block b : blocks){
+                if(b == null || b.name.equals("air")) continue;
+                Color c = colors.computeIfAbsent(b.name, materialSet::getBlockColor);
+                int rgb = c == null ? 0xFF7F7F7F : (0xFF000000 | c.getRGB());
+                int x = b.x - minX, y = b.y - minY, z = b.z - minZ;
+                if(y > topY[x * sizeZ + z]){
+                    topY[x * sizeZ + z] = y;
+                    top[x * sizeZ + z] = rgb;
+                }
+                if(z < sideZ[(sizeY - 1 - y) * sizeX + x]){
+                    sideZ[(sizeY - 1 - y) * sizeX + x] = z;
+                    side[(sizeY - 1 - y) * sizeX + x] = rgb;
+                }
+            }
+        }
+        //shade the top view by height, so its shape shows
+        for(int i = 0; i < top.length; i++){
+            if(topY[i] == Integer.MIN_VALUE) continue;
+            float shade = 0.5f + 0.5f * (topY[i] + 1) / sizeY;
+            int r = (int) (((top[i] >> 16) & 0xFF) * shade);
+            int g = (int) (((top[i] >> 8) & 0xFF) * shade);
+            int b = (int) ((top[i] & 0xFF) * shade);
+            top[i] = 0xFF000000 | (r << 16) | (g << 8) | b;
+        }
+        //top[x * sizeZ + z] is a row per x, so the image is sizeZ wide
+        writePreview(top, sizeZ, sizeX, new File(outDirectory, name + "_top.png"));
+        writePreview(side, sizeX, sizeY, new File(outDirectory, name + "_side.png"));
+    }
+    
+    /**
+     * Write an image, scaled up by a whole number so that its larger side is
+     * at least 256 pixels.
+     */
+    private static void writePreview(int[] pixels, int width, int height, File file) throws IOException{
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        image.setRGB(0, 0, width, height, pixels, 0, width);
+        int scale = Math.max(1, 256 / Math.max(width, height));
+        if(scale > 1){
+            BufferedImage scaled = new BufferedImage(width * scale, height * scale, BufferedImage.TYPE_INT_ARGB);
+            Graphics2D g = scaled.createGraphics();
+            g.drawImage(image, 0, 0, width * scale, height * scale, null);
+            g.dispose();
+            image = scaled;
+        }
+        ImageIO.write(image, "png", file);
+    }
+    
 }
@@ -0,0 +1,209 @@
+package com.garhoogin.obj2minecraft;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Checks {@link Main#tricube_overlap} against the test it replaced, which
+ * ran a separating axis test with a wrong first edge axis once for each
+ * winding of a face. Random boxes are tested against random faces, and the
+ * test passes if:
+ * <ul>
+ * <li>the result is the same for either winding of a face,</li>
+ * <li>it is the same as the old test with only the first edge axis fixed,
+ * so nothing else changed, and</li>
+ * <li>wherever it differs from the old test, it agrees with an exact
+ * separating axis test done in double precision, so every difference is a
+ * case the old test got wrong.</li>
+ * </ul>
+ * Cases too close to a tie to tell apart in float are not counted. Run it
+ * with {@code java com.garhoogin.obj2minecraft.OverlapTest}; it exits with
+ * an error if a check fails.
+ *
+ * @author Declan Moore
+ */
+public class OverlapTest {
+
+    private static final int FACES = 20000;
+    private static final int BOXES_PER_FACE = 50;
+
+    //a case is a tie if the exact separation is within this fraction of the
+    //box size
+    private static final double TIE = 1.0e-4;
+
+
+    public static void main(String[] args){
+        Random random = new Random(14);
+        //face 2i and 2i + 1 are the same triangle wound both ways
+        float[] positions = new float[FACES * 9];
+        int[] indices = new int[FACES * 6];
+        for(int i = 0; i < FACES; i++){
+            for(int j = 0; j < 9; j++){
+                positions[i * 9 + j] = random.nextFloat();
+            }
+            if(i % 4 == 0){
+                //axis-aligned faces, as in the test models
+                int axis = random.nextInt(3);
+                for(int j = 0; j < 3; j++) positions[i * 9 + j * 3 + axis] = positions[i * 9 + axis];
+            }
+            indices[i * 6] = i * 3;
+            indices[i * 6 + 1] = i * 3 + 1;
+            indices[i * 6 + 2] = i * 3 + 2;
+            indices[i * 6 + 3] = i * 3 + 1;
+            indices[i * 6 + 4] = i * 3;
+            indices[i * 6 + 5] = i * 3 + 2;
+        }
+        int[] texIndices = new int[FACES * 6];
+        Arrays.fill(texIndices, -1);
+        short[] materials = new short[FACES * 2];
+        Arrays.fill(materials, (short) -1);
+        Mesh mesh = new Mesh(positions, new float[0], indices, texIndices, materials, new String[0]);
+
+        int tests = 0, ties = 0, changed = 0;
+        int windingErrors = 0, fixedAxisErrors = 0, changeErrors = 0;
+        for(int i = 0; i < FACES; i++){
+            int face = i * 2;
+            float[] b = mesh.bounds;
+            for(int k = 0; k < BOXES_PER_FACE; k++){
+                float boxSize = 0.02f + 0.4f * random.nextFloat();
+                float x = b[face * 6] - boxSize + random.nextFloat() * (b[face * 6 + 3] - b[face * 6] + boxSize);
+                float y = b[face * 6 + 1] - boxSize + random.nextFloat() * (b[face * 6 + 4] - b[face * 6 + 1] + boxSize);
+                float z = b[face * 6 + 2] - boxSize + random.nextFloat() * (b[face * 6 + 5] - b[face * 6 + 2] + boxSize);
+                tests++;
+                double separation = exactSeparation(mesh, face, x, y, z, 0.5 * boxSize);
+                if(Math.abs(separation) < TIE * boxSize){
+                    ties++;
+                    continue;
+                }
+                boolean now = Main.tricube_overlap(mesh, face, x, y, z, boxSize);
+                if(now != Main.tricube_overlap(mesh, face + 1, x, y, z, boxSize)) windingErrors++;
+                if(now != oldOverlap(mesh, face, x, y, z, boxSize, true)) fixedAxisErrors++;
+                if(now != oldOverlap(mesh, face, x, y, z, boxSize, false)){
+                    changed++;
+                    if(now != separation <= 0.0) changeErrors++;
+                }
+            }
+        }
+        System.out.println(tests + " tests, " + ties + " ties skipped, " + changed + " changed from the old test");
+        check(windingErrors, "results that depend on the winding");
+        check(fixedAxisErrors, "results that differ from the old test with the axis fixed");
+        check(changeErrors, "changed results that the exact test disagrees with");
+        System.out.println("OK");
+    }
+
+    private static void check(int errors, String what){
+        if(errors != 0) throw new AssertionError(errors + " " + what);
+    }
+
+
+    /**
+     * The overlap test as it was, tested for both windings, optionally with
+     * the first edge axis fixed.
+     */
+    private static boolean oldOverlap(Mesh mesh, int face, float x, float y, float z, float boxSize, boolean fixAxis){
+        float[] bounds = mesh.bounds;
+        int i = face * 6;
+        if(x < bounds[i] - boxSize || x > bounds[i + 3] + boxSize
+                || y < bounds[i + 1] - boxSize || y > bounds[i + 4] + boxSize
+                || z < bounds[i + 2] - boxSize || z > bounds[i + 5] + boxSize) return false;
+        float half = 0.5f * boxSize;
+        return oldOverlapOne(mesh, face, false, x, y, z, half, fixAxis)
+                || oldOverlapOne(mesh, face, true, x, y, z, half, fixAxis);
+    }
+
+    private static boolean oldOverlapOne(Mesh mesh, int face, boolean flip, float x, float y, float z, float half, boolean fixAxis){
+        float[] positions = mesh.positions;
+        int a = mesh.indices[face * 3] * 3;
+        int b = mesh.indices[face * 3 + 1] * 3;
+        int c = mesh.indices[face * 3 + 2] * 3;
+        if(flip){
+            int tmp = a;
+            a = b;
+            b = tmp;
+        }
+        x += half;
+        y += half;
+        z += half;
+        float v0x = positions[a] - x, v0y = positions[a + 1] - y, v0z = positions[a + 2] - z;
+        float v1x = positions[b] - x, v1y = positions[b + 1] - y, v1z = positions[b + 2] - z;
+        float v2x = positions[c] - x, v2y = positions[c + 1] - y, v2z = positions[c + 2] - z;
+        float nx = mesh.planes[face * 4], ny = mesh.planes[face * 4 + 1], nz = mesh.planes[face * 4 + 2];
+        float d = nx * v0x + ny * v0y + nz * v0z;
+        float r = half * (Math.abs(nx) + Math.abs(ny) + Math.abs(nz));
+        if (d > r || d < -r) return false;
+        float ex = v1x - v0x, ey = v1y - v0y, ez = v1z - v0z;
+        if (Main.axis_test(ez, fixAxis ? -ey : -ex, v0y, v0z, v2y, v2z, half)) return false;
+        if (Main.axis_test(-ez, ex, v0x, v0z, v2x, v2z, half)) return false;
+        if (Main.axis_test(ey, -ex, v1x, v1y, v2x, v2y, half)) return false;
+        ex = v2x - v1x; ey = v2y - v1y; ez = v2z - v1z;
+        if (Main.axis_test(ez, -ey, v0y, v0z, v2y, v2z, half)) return false;
+        if (Main.axis_test(-ez, ex, v0x, v0z, v2x, v2z, half)) return false;
+        if (Main.axis_test(ey, -ex, v0x, v0y, v1x, v1y, half)) return false;
+        ex = v0x - v2x; ey = v0y - v2y; ez = v0z - v2z;
+        if (Main.axis_test(ez, -ey, v0y, v0z, v1y, v1z, half)) return false;
+        if (Main.axis_test(-ez, ex, v0x, v0z, v1x, v1z, half)) return false;
+        if (Main.axis_test(ey, -ex, v1x, v1y, v2x, v2y, half)) return false;
+        return true;
+    }
+
+
+    /**
+     * Find how far apart a face and a box are along the axes the overlap
+     * test checks: the face's normal and the cross products of its edges
+     * with the box's axes. The box's own axes are left to the bounds test,
+     * as in the overlap test, so the box is also taken to be apart if that
+     * test rejects it.
+     *
+     * @return the largest separation along any of the axes, positive if the
+     *         face and box are apart and zero or negative if they overlap
+     */
+    private static double exactSeparation(Mesh mesh, int face, float x, float y, float z, double half){
+        float[] bounds = mesh.bounds;
+        int i = face * 6;
+        double boxSize = 2.0 * half;
+        double boundsGap = Math.max(Math.max(Math.max(bounds[i] - boxSize - x, x - bounds[i + 3] - boxSize),
+                Math.max(bounds[i + 1] - boxSize - y, y - bounds[i + 4] - boxSize)),
+                Math.max(bounds[i + 2] - boxSize - z, z - bounds[i + 5] - boxSize));
+        if(boundsGap > 0.0) return boundsGap;
+
+        double[][] v = new double[3][3];
+        for(int j = 0; j < 3; j++){
+            int p = mesh.indices[face * 3 + j] * 3;
+            v[j][0] = mesh.positions[p] - (x + half);
+            v[j][1] = mesh.positions[p + 1] - (y + half);
+            v[j][2] = mesh.positions[p + 2] - (z + half);
+        }
+        double[][] edges = new double[3][];
+        for(int j = 0; j < 3; j++){
+            double[] from = v[j], to = v[(j + 1) % 3];
+            edges[j] = new double[]{to[0] - from[0], to[1] - from[1], to[2] - from[2]};
+        }
+        double separation = separation(cross(edges[0], edges[1]), v, half);
+        for(double[] edge : edges){
+            for(int axis = 0; axis < 3; axis++){
+                double[] unit = new double[3];
+                unit[axis] = 1.0;
+                separation = Math.max(separation, separation(cross(unit, edge), v, half));
+            }
+        }
+        return separation;
+    }
+
+    private static double separation(double[] axis, double[][] v, double half){
+        double length = Math.sqrt(axis[0] * axis[0] + axis[1] * axis[1] + axis[2] * axis[2]);
+        if(length == 0.0) return Double.NEGATIVE_INFINITY;
+        double min = Double.POSITIVE_INFINITY, max = Double.NEGATIVE_INFINITY;
+        for(double[] p : v){
+            double d = p[0] * axis[0] + p[1] * axis[1] + p[2] * axis[2];
+            min = Math.min(min, d);
+            max = Math.max(max, d);
+        }
+        double r = half * (Math.abs(axis[0]) + Math.abs(axis[1]) + Math.abs(axis[2]));
+        return Math.max(min - r, -r - max) / length;
+    }
+
+    private static double[] cross(double[] a, double[] b){
+        return new double[]{a[1] * b[2] - a[2] * b[1], a[2] * b[0] - a[0] * b[2], a[0] * b[1] - a[1] * b[0]};
+    }
+
+}
@@ -0,0 +1,288 @@
+package com.garhoogin.obj2minecraft;
+
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Checks the texture mapping of {@link Mesh#getU} and {@link Mesh#getV}
+ * against the chain it replaced, which projected a point onto the plane of
+ * a face and found its barycentric coordinates from the areas of the three
+ * triangles it made with the face's edges. Random points around random
+ * faces must map to the same texture coordinates within float tolerance.
+ * Faces far from the origin are checked the same way, against the old chain
+ * done in double precision, since in float it loses the precision the new
+ * map must keep.
+ * <p>
+ * A sliver face too thin for its normal to be found in float made the old
+ * chain return NaN. The new map is found in double and gives huge but
+ * finite coordinates instead, and the test checks that sampling a small
+ * texture at them gives the average of the whole texture rather than an
+ * overflowed total. Run it with
+ * {@code java com.garhoogin.obj2minecraft.UvMapTest}; it exits with an error
+ * if a check fails.
+ *
+ * @author Declan Moore
+ */
+public class UvMapTest {
+
+    private static final int FACES = 20000;
+    private static final int POINTS_PER_FACE = 20;
+
+    //the largest difference allowed, relative to the size of the texture
+    //coordinates compared
+    private static final float TOLERANCE = 1.0e-4f;
+
+    //faces are only compared if twice their area is at least this fraction
+    //of their longest edge squared, as the old chain loses precision on
+    //thin faces
+    private static final float MIN_SHAPE = 0.05f;
+
+
+    public static void main(String[] args){
+        Random random = new Random(25);
+        int errors = compare(randomFaces(random, 1.0f, 0.0f), random, false, "faces near the origin");
+        //small faces, as in a detailed model, at 1000 to 10000 from the
+        //origin on each axis
+        errors += compare(randomFaces(random, 0.05f, 1.0e3f), random, true, "faces far from the origin");
+        check(errors, "texture coordinates that differ from the old chain");
+        checkSliver();
+        System.out.println("OK");
+    }
+
+    /**
+     * Make a mesh of random textured faces. Each face is in a cube of the
+     * given size, moved by {@code offset} to {@code 10 * offset} either way
+     * along each axis.
+     */
+    private static Mesh randomFaces(Random random, float size, float offset){
+        float[] positions = new float[FACES * 9];
+        float[] texCoords = new float[FACES * 6];
+        int[] indices = new int[FACES * 3];
+        for(int i = 0; i < FACES; i++){
+            float[] move = new float[3];
+            for(int j = 0; j < 3; j++){
+                move[j] = (random.nextBoolean() ? 1 : -1) * offset * (1.0f + 9.0f * random.nextFloat());
+            }
+            for(int j = 0; j < 9; j++){
+                positions[i * 9 + j] = move[j % 3] + size * random.nextFloat();
+            }
+        }
+        for(int i = 0; i < FACES * 6; i++) texCoords[i] = 3.0f * random.nextFloat() - 1.0f;
+        for(int i = 0; i < FACES * 3; i++) indices[i] = i;
+        return new Mesh(positions, texCoords, indices, indices.clone(), new short[FACES], new String[]{"test"});
+    }
+
+    /**
+     * Compare the texture coordinates of random points around each face of
+     * a mesh with those of the old chain, done in float or, if
+     * {@code exact}, in double.
+     *
+     * @return the number of points that differ by more than the tolerance
+     */
+    private static int compare(Mesh mesh, Random random, boolean exact, String what){
+        int tests = 0, skipped = 0, errors = 0;
+        float maxError = 0.0f;
+        float[] b = mesh.bounds;
+        for(int face = 0; face < FACES; face++){
+            if(shape(mesh, face) < MIN_SHAPE){
+                skipped++;
+                continue;
+            }
+            for(int k = 0; k < POINTS_PER_FACE; k++){
+                //points around the face, both on and off its plane
+                float[] p = new float[3];
+                for(int axis = 0; axis < 3; axis++){
+                    float lo = b[face * 6 + axis], extent = b[face * 6 + 3 + axis] - lo;
+                    p[axis] = lo + (1.5f * random.nextFloat() - 0.25f) * extent;
+                }
+                float[] old = exact ? exactTexCoord(mesh, face, p[0], p[1], p[2]) : oldTexCoord(mesh, face, p[0], p[1], p[2]);
+                float u = mesh.getU(face, p[0], p[1], p[2]), v = mesh.getV(face, p[0], p[1], p[2]);
+                float error = Math.max(Math.abs(old[0] - u), Math.abs(old[1] - v));
+                float scale = 1.0f + Math.max(Math.abs(old[0]), Math.abs(old[1]));
+                tests++;
+                maxError = Math.max(maxError, error / scale);
+                if(!(error <= TOLERANCE * scale)) errors++;
+            }
+        }
+        System.out.println(what + ": " + tests + " points on " + (FACES - skipped) + " faces, " + skipped
+                + " thin faces skipped, largest relative error " + maxError);
+        return errors;
+    }
+
+    private static void check(int errors, String what){
+        if(errors != 0) throw new AssertionError(errors + " " + what);
+    }
+
+
+    /**
+     * Check a sliver face, which the old chain maps to NaN, and sample a
+     * small texture with the coordinates the new map gives it.
+     */
+    private static void checkSliver(){
+        float[] positions = {0.0f, 0.0f, 0.0f, 1.0f, 0.0f, 0.0f, 2.0f, 1.0e-30f, 0.0f};
+        float[] texCoords = {0.0f, 0.0f, 1.0f, 0.0f, 0.0f, 1.0f};
+        int[] indices = {0, 1, 2};
+        Mesh mesh = new Mesh(positions, texCoords, indices, indices.clone(), new short[1], new String[]{"test"});
+
+        float[] old = oldTexCoord(mesh, 0, 0.5f, 0.5f, 0.5f);
+        if(!Float.isNaN(old[0]) || !Float.isNaN(old[1])){
+            throw new AssertionError("the old chain maps the sliver to " + Arrays.toString(old) + ", not NaN");
+        }
+        float uMin = Float.POSITIVE_INFINITY, vMin = Float.POSITIVE_INFINITY;
+        float uMax = Float.NEGATIVE_INFINITY, vMax = Float.NEGATIVE_INFINITY;
+        for(int i = 0; i < 8; i++){
+            //the corners of a block around the sliver
+            float x = 0.5f + (i & 1), y = -0.5f + ((i >> 1) & 1), z = -0.5f + ((i >> 2) & 1);
+            float u = mesh.getU(0, x, y, z), v = mesh.getV(0, x, y, z);
+            if(Float.isNaN(u) || Float.isNaN(v) || Float.isInfinite(u) || Float.isInfinite(v)){
+                throw new AssertionError("the sliver maps to (" + u + ", " + v + ")");
+            }
+            uMin = Math.min(uMin, u);
+            vMin = Math.min(vMin, v);
+            uMax = Math.max(uMax, u);
+            vMax = Math.max(vMax, v);
+        }
+        System.out.println("sliver maps a block to u " + uMin + " to " + uMax + ", v " + vMin + " to " + vMax);
+
+        Random random = new Random(23);
+        BufferedImage image = new BufferedImage(3, 3, BufferedImage.TYPE_INT_ARGB);
+        for(int y = 0; y < 3; y++){
+            for(int x = 0; x < 3; x++){
+                image.setRGB(x, y, 0xFF000000 | (random.nextInt(0x40) + 0xC0) << 16
+                        | (random.nextInt(0x40) + 0xC0) << 8 | (random.nextInt(0x40) + 0xC0));
+            }
+        }
+        Texture texture = new Texture(image, "test");
+        int expected = wholeAverage(image);
+        checkSample(texture.sampleRGB(uMin, vMin, uMax, vMax), expected, "the sliver's block");
+        //a box just short of where the texture takes it to span the whole
+        //texture, summing many periods of it
+        float far = ((1 << 24) - 2) / 3.0f;
+        checkSample(texture.sampleRGB(0.0f, 0.0f, far, far), expected, "a box of many periods");
+        checkSample(texture.sampleRGB(-far, -far, 0.0f, 0.0f), expected, "a box of many negative periods");
+    }
+
+    private static void checkSample(int sample, int expected, String what){
+        if(sample != expected){
+            throw new AssertionError("sampling " + what + " gives " + Integer.toHexString(sample)
+                    + ", not the texture's average " + Integer.toHexString(expected));
+        }
+    }
+
+    /**
+     * Average every texel of an image, weighting colors by alpha and rounding
+     * as the texture does.
+     */
+    private static int wholeAverage(BufferedImage image){
+        long a = 0, r = 0, g = 0, b = 0;
+        long n = (long) image.getWidth() * image.getHeight();
+        for(int y = 0; y < image.getHeight(); y++){
+            for(int x = 0; x < image.getWidth(); x++){
+                int c = image.getRGB(x, y);
+                int ca = c >>> 24;
+                a += ca;
+                r += ((c >>> 16) & 0xFF) * ca;
+                g += ((c >>> 8) & 0xFF) * ca;
+                b += (c & 0xFF) * ca;
+            }
+        }
+        long totalAlpha = a;
+        a = (a + (n >>> 1)) / n;
+        r = (r + (totalAlpha >>> 1)) / totalAlpha;
+        g = (g + (totalAlpha >>> 1)) / totalAlpha;
+        b = (b + (totalAlpha >>> 1)) / totalAlpha;
+        return (int) ((a << 24) | (r << 16) | (g << 8) | b);
+    }
+
+
+    /**
+     * Find twice the area of a face over its longest edge squared, which is
+     * small for a thin face.
+     */
+    private static float shape(Mesh mesh, int face){
+        float[] v = new float[9];
+        for(int j = 0; j < 3; j++){
+            int p = mesh.indices[face * 3 + j] * 3;
+            System.arraycopy(mesh.positions, p, v, j * 3, 3);
+        }
+        float longest = 0.0f;
+        for(int j = 0; j < 3; j++){
+            int from = j * 3, to = (j + 1) % 3 * 3;
+            float dx = v[to] - v[from], dy = v[to + 1] - v[from + 1], dz = v[to + 2] - v[from + 2];
+            longest = Math.max(longest, dx * dx + dy * dy + dz * dz);
+        }
+        float bax = v[3] - v[0], bay = v[4] - v[1], baz = v[5] - v[2];
+        float cax = v[6] - v[0], cay = v[7] - v[1], caz = v[8] - v[2];
+        float nx = bay * caz - baz * cay, ny = baz * cax - bax * caz, nz = bax * cay - bay * cax;
+        return (float) Math.sqrt(nx * nx + ny * ny + nz * nz) / longest;
+    }
+
+
+    /**
+     * The texture coordinate of a point found as {@link #oldTexCoord} does,
+     * but in double precision.
+     */
+    private static float[] exactTexCoord(Mesh mesh, int face, float px, float py, float pz){
+        double[][] v = new double[3][3];
+        for(int j = 0; j < 3; j++){
+            int p = mesh.indices[face * 3 + j] * 3;
+            v[j][0] = mesh.positions[p];
+            v[j][1] = mesh.positions[p + 1];
+            v[j][2] = mesh.positions[p + 2];
+        }
+        double[] n = cross(sub(v[1], v[0]), sub(v[2], v[0]));
+        double length = Math.sqrt(dot(n, n));
+        for(int j = 0; j < 3; j++) n[j] /= length;
+        double[] point = {px, py, pz};
+        double dist = dot(n, sub(point, v[0]));
+        double[] q = {px - n[0] * dist, py - n[1] * dist, pz - n[2] * dist};
+        double[] qa = sub(v[0], q), qb = sub(v[1], q), qc = sub(v[2], q);
+        double areaQBC = dot(n, cross(qb, qc)), areaQCA = dot(n, cross(qc, qa)), areaQAB = dot(n, cross(qa, qb));
+        double area = areaQBC + areaQCA + areaQAB;
+        double l1 = areaQBC / area, l2 = areaQCA / area, l3 = areaQAB / area;
+        float[] texCoords = mesh.texCoords;
+        int t1 = mesh.texIndices[face * 3] * 2, t2 = mesh.texIndices[face * 3 + 1] * 2, t3 = mesh.texIndices[face * 3 + 2] * 2;
+        return new float[]{(float) (texCoords[t1] * l1 + texCoords[t2] * l2 + texCoords[t3] * l3),
+                (float) (texCoords[t1 + 1] * l1 + texCoords[t2 + 1] * l2 + texCoords[t3 + 1] * l3)};
+    }
+
+    private static double[] sub(double[] a, double[] b){
+        return new double[]{a[0] - b[0], a[1] - b[1], a[2] - b[2]};
+    }
+
+    private static double dot(double[] a, double[] b){
+        return a[0] * b[0] + a[1] * b[1] + a[2] * b[2];
+    }
+
+    private static double[] cross(double[] a, double[] b){
+        return new double[]{a[1] * b[2] - a[2] * b[1], a[2] * b[0] - a[0] * b[2], a[0] * b[1] - a[1] * b[0]};
+    }
+
+
+    /**
+     * The texture coordinate of a point as it was found before: the point
+     * is projected onto the plane of the face, and the areas of the
+     * triangles it makes with each edge weight the face's texture
+     * coordinates.
+     */
+    private static float[] oldTexCoord(Mesh mesh, int face, float px, float py, float pz){
+        float[] positions = mesh.positions, planes = mesh.planes, texCoords = mesh.texCoords;
+        int a = mesh.indices[face * 3] * 3, b = mesh.indices[face * 3 + 1] * 3, c = mesh.indices[face * 3 + 2] * 3;
+        float nx = planes[face * 4], ny = planes[face * 4 + 1], nz = planes[face * 4 + 2];
+        float dist = nx * px + ny * py + nz * pz - planes[face * 4 + 3];
+        float qx = px - nx * dist, qy = py - ny * dist, qz = pz - nz * dist;
+        float ax = positions[a] - qx, ay = positions[a + 1] - qy, az = positions[a + 2] - qz;
+        float bx = positions[b] - qx, by = positions[b + 1] - qy, bz = positions[b + 2] - qz;
+        float cx = positions[c] - qx, cy = positions[c + 1] - qy, cz = positions[c + 2] - qz;
+        float areaQBC = nx * (by * cz - bz * cy) + ny * (bz * cx - bx * cz) + nz * (bx * cy - by * cx);
+        float areaQCA = nx * (cy * az - cz * ay) + ny * (cz * ax - cx * az) + nz * (cx * ay - cy * ax);
+        float areaQAB = nx * (ay * bz - az * by) + ny * (az * bx - ax * bz) + nz * (ax * by - ay * bx);
+        float invArea = 1.0f / (areaQBC + areaQCA + areaQAB);
+        float l1 = areaQBC * invArea, l2 = areaQCA * invArea, l3 = 1.0f - l1 - l2;
+        int t1 = mesh.texIndices[face * 3] * 2, t2 = mesh.texIndices[face * 3 + 1] * 2, t3 = mesh.texIndices[face * 3 + 2] * 2;
+        return new float[]{texCoords[t1] * l1 + texCoords[t2] * l2 + texCoords[t3] * l3,
+                texCoords[t1 + 1] * l1 + texCoords[t2 + 1] * l2 + texCoords[t3 + 1] * l3};
+    }
+
+}
@@ -0,0 +1,82 @@
+package com.garhoogin.obj2minecraft;
+
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * The {@code VectorOverlapKernel} class checks the bounding boxes of a run of
+ * faces against a block with the incubating Java Vector API. The bounding
+ * box of every face in the list is copied into six arrays in list order, so
+ * a run is read with plain vector loads rather than gathers. The few faces
+ * whose boxes pass get the full test of {@link Main#tricube_overlap_one}.
+ * The comparisons are the same as in {@link Main#tricube_overlap}, so the
+ * results are identical.
+ * The vectors are the widest the processor has, so eight faces a run with
+ * AVX2 and sixteen with AVX-512.
+ * <p>
+ * This class needs {@code --add-modules jdk.incubator.vector} to compile and
+ * run, so it is kept in the separate {@code vector} source directory and
+ * only built on request; everything else builds without it. It is only
+ * loaded through {@link OverlapKernel#create}.
+ *
+ * @author Declan Moore
+ */
+final class VectorOverlapKernel implements OverlapKernel {
+
+    private static final VectorSpecies<Float> SPECIES = FloatVector.SPECIES_PREFERRED;
+
+    private final Mesh mesh;
+    private final int[] faces;
+    private final float[] minX, minY, minZ, maxX, maxY, maxZ;
+
+
+    /**
+     * Create a new instance of {@code VectorOverlapKernel}.
+     *
+     * @param mesh  the mesh
+     * @param faces the list of faces
+     */
+    VectorOverlapKernel(Mesh mesh, int[] faces){
+        this.mesh = mesh;
+        this.faces = faces;
+        float[][] bounds = new float[6][faces.length];
+        for(int i = 0; i < faces.length; i++){
+            for(int j = 0; j < 6; j++){
+                bounds[j][i] = mesh.bounds[faces[i] * 6 + j];
+            }
+        }
+        minX = bounds[0]; minY = bounds[1]; minZ = bounds[2];
+        maxX = bounds[3]; maxY = bounds[4]; maxZ = bounds[5];
+    }
+
+    @Override
+    public int getBatchSize(){
+        return SPECIES.length() * 2;
+    }
+
+    @Override
+    public long test(int offset, int count, float x, float y, float z, float boxSize){
+        long hits = 0;
+        for(int i = 0; i < count; i += SPECIES.length()){
+            VectorMask<Float> lanes = SPECIES.indexInRange(i, count);
+            int start = offset + i;
+            VectorMask<Float> miss = FloatVector.fromArray(SPECIES, minX, start, lanes).sub(boxSize).compare(VectorOperators.GT, x)
+                    .or(FloatVector.fromArray(SPECIES, maxX, start, lanes).add(boxSize).compare(VectorOperators.LT, x))
+                    .or(FloatVector.fromArray(SPECIES, minY, start, lanes).sub(boxSize).compare(VectorOperators.GT, y))
+                    .or(FloatVector.fromArray(SPECIES, maxY, start, lanes).add(boxSize).compare(VectorOperators.LT, y))
+                    .or(FloatVector.fromArray(SPECIES, minZ, start, lanes).sub(boxSize).compare(VectorOperators.GT, z))
+                    .or(FloatVector.fromArray(SPECIES, maxZ, start, lanes).add(boxSize).compare(VectorOperators.LT, z));
+            long passed = lanes.andNot(miss).toLong();
+            for(; passed != 0; passed &= passed - 1){
+                int lane = Long.numberOfTrailingZeros(passed);
+                if(Main.tricube_overlap_one(mesh, faces[start + lane], x, y, z, 0.5f * boxSize)){
+                    hits |= 1L << (i + lane);
+                }
+            }
+        }
+        return hits;
+    }
+
+}